@@ -0,0 +1,127 @@
+package com.yunli.hive.udf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFBridge;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * UDFArrayContains、UDFFindInArray 的吞吐量
+ *
+ * 两者语义相同，UDFArrayContains 直接读取 LazyBinary 数组，
+ * UDFFindInArray 经过 GenericUDFBridge 把数组转换成 List&lt;String&gt; 后再查找。
+ * 每次调用处理 ROWS 行，结果按行计。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ArrayLookupBenchmark {
+
+  static final int ROWS = 4096;
+
+  /**
+   * 数组的长度
+   */
+  @Param({"8", "128"})
+  public int arraySize;
+
+  /**
+   * 被查找的值在数组中位置的倾斜程度，0 为均匀分布，越大越靠前；约十分之一的值不在数组中
+   */
+  @Param({"0", "1.2"})
+  public double skew;
+
+  private LazyBinaryRows rows;
+
+  private StructField arrayField;
+
+  private StructField valueField;
+
+  private GenericUDF arrayContains;
+
+  private GenericUDF findInArray;
+
+  private final BenchmarkInputs.Argument first = new BenchmarkInputs.Argument();
+
+  private final BenchmarkInputs.Argument second = new BenchmarkInputs.Argument();
+
+  private final GenericUDF.DeferredObject[] arguments = new GenericUDF.DeferredObject[] {first, second};
+
+  @Setup
+  public void setUp() throws HiveException, SerDeException {
+    Random random = new Random(BenchmarkInputs.SEED);
+    Zipf position = new Zipf(arraySize, skew, BenchmarkInputs.SEED);
+    List<Object> input = new ArrayList<Object>(ROWS);
+    for (int i = 0; i < ROWS; i++) {
+      List<String> array = new ArrayList<String>(arraySize);
+      for (int j = 0; j < arraySize; j++) {
+        array.add(BenchmarkInputs.GIVEN_NAMES[random.nextInt(BenchmarkInputs.GIVEN_NAMES.length)] + "-" + i + "-" + j);
+      }
+      String value = random.nextInt(10) == 0 ? "missing-" + i : array.get(position.next());
+      input.add(BenchmarkInputs.row(array, value));
+    }
+    rows = LazyBinaryRows.serialize("arr,v", "array<string>,string",
+        LazyBinaryRows.structOI("arr,v",
+            ObjectInspectorFactory.getStandardListObjectInspector(
+                PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+            PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+        input);
+    arrayField = rows.field("arr");
+    valueField = rows.field("v");
+
+    arrayContains = new UDFArrayContains();
+    arrayContains.initialize(new ObjectInspector[] {
+        arrayField.getFieldObjectInspector(), valueField.getFieldObjectInspector()});
+
+    findInArray = new GenericUDFBridge("my_find_in_array", false, UDFFindInArray.class.getName());
+    findInArray.initialize(new ObjectInspector[] {
+        valueField.getFieldObjectInspector(), arrayField.getFieldObjectInspector()});
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void arrayContains(Blackhole blackhole) throws Exception {
+    for (int i = 0; i < ROWS; i++) {
+      Object row = rows.row(i);
+      first.value = rows.rowOI.getStructFieldData(row, arrayField);
+      second.value = rows.rowOI.getStructFieldData(row, valueField);
+      blackhole.consume(arrayContains.evaluate(arguments));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void findInArray(Blackhole blackhole) throws Exception {
+    for (int i = 0; i < ROWS; i++) {
+      Object row = rows.row(i);
+      first.value = rows.rowOI.getStructFieldData(row, valueField);
+      second.value = rows.rowOI.getStructFieldData(row, arrayField);
+      blackhole.consume(findInArray.evaluate(arguments));
+    }
+  }
+}
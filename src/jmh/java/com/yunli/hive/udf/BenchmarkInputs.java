@@ -0,0 +1,52 @@
+package com.yunli.hive.udf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+
+/**
+ * 基准测试的输入数据
+ *
+ * 数据先用 {@link LazyBinaryRows} 序列化，基准测试中逐行反序列化并通过 serde 的 ObjectInspector 读取字段，
+ * 与 Hive 从 shuffle 或中间文件读取数据时走的路径一致。
+ */
+final class BenchmarkInputs {
+
+  static final long SEED = 20210817L;
+
+  static final String[] GIVEN_NAMES = {
+      "John", "Ann", "Ted", "Mary", "Dorothy", "James", "Linda", "Robert", "Susan", "Michael"};
+
+  static final String[] SURNAMES = {
+      "Smith", "White", "Green", "Brown", "Johnson", "Miller", "Davis", "Wilson", "Moore", "Taylor"};
+
+  static final String[] CHINESE_SURNAMES = {"张", "李", "王", "贾", "陈", "郑", "欧阳", "司马", "诸葛", "上官"};
+
+  static final String[] CHINESE_GIVEN_NAMES = {"三", "四", "五", "八", "六", "七", "锋", "光", "明亮", "和平"};
+
+  private BenchmarkInputs() {
+  }
+
+  static List<Object> row(Object... fields) {
+    return new ArrayList<Object>(Arrays.asList(fields));
+  }
+
+  /**
+   * 可复用的 GenericUDF 参数，对应 Hive 表达式求值时每行重新指向当前字段的 DeferredObject
+   */
+  static final class Argument implements GenericUDF.DeferredObject {
+    Object value;
+
+    @Override
+    public void prepare(int version) throws HiveException {
+    }
+
+    @Override
+    public Object get() throws HiveException {
+      return value;
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package com.yunli.hive.udf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * UDFBloomContains 的吞吐量
+ *
+ * constantFilter 的 filter 参数是常量，在 initialize 时反序列化；rowFilter 的 filter 参数不是常量，
+ * 每行都传入同一个 BytesWritable，与 CROSS JOIN 子查询结果时相同，每行直接在序列化字节上探测。
+ * 两者的吞吐量都不应随 expectedItems（即 filter 大小）成比例下降。每次调用处理 ROWS 行，结果按行计。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BloomContainsBenchmark {
+
+  static final int ROWS = 4096;
+
+  /**
+   * 构建 filter 时的 expected_items，fpp 为默认的 0.03，1000000 时 filter 约 900KB
+   */
+  @Param({"1000", "1000000"})
+  public long expectedItems;
+
+  private LazyBinaryRows rows;
+
+  private StructField valueField;
+
+  private BytesWritable filter;
+
+  private GenericUDF constantFilter;
+
+  private GenericUDF rowFilter;
+
+  private final BenchmarkInputs.Argument first = new BenchmarkInputs.Argument();
+
+  private final BenchmarkInputs.Argument second = new BenchmarkInputs.Argument();
+
+  private final GenericUDF.DeferredObject[] arguments = new GenericUDF.DeferredObject[] {first, second};
+
+  @Setup
+  public void setUp() throws HiveException, SerDeException {
+    Random random = new Random(BenchmarkInputs.SEED);
+    BloomFilter bloomFilter = BloomFilter.create(expectedItems, BloomFilter.DEFAULT_FPP);
+    for (long i = 0; i < expectedItems; i++) {
+      bloomFilter.add(BloomFilter.hashLong(random.nextInt(Integer.MAX_VALUE)));
+    }
+    filter = new BytesWritable(bloomFilter.serialize());
+
+    // 偶数行按构建 filter 的同一随机序列取值（前 expectedItems 个在 filter 中），奇数行为负数，不在 filter 中
+    random = new Random(BenchmarkInputs.SEED);
+    List<Object> input = new ArrayList<Object>(ROWS);
+    for (int i = 0; i < ROWS; i++) {
+      input.add(BenchmarkInputs.row((long) (i % 2 == 0 ? random.nextInt(Integer.MAX_VALUE) : -i)));
+    }
+    rows = LazyBinaryRows.serialize("v", "bigint",
+        LazyBinaryRows.structOI("v", PrimitiveObjectInspectorFactory.javaLongObjectInspector), input);
+    valueField = rows.field("v");
+
+    constantFilter = new UDFBloomContains();
+    constantFilter.initialize(new ObjectInspector[] {
+        PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+            TypeInfoFactory.binaryTypeInfo, filter),
+        valueField.getFieldObjectInspector()});
+
+    rowFilter = new UDFBloomContains();
+    rowFilter.initialize(new ObjectInspector[] {
+        PrimitiveObjectInspectorFactory.writableBinaryObjectInspector, valueField.getFieldObjectInspector()});
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void constantFilter(Blackhole blackhole) throws Exception {
+    probe(constantFilter, blackhole);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void rowFilter(Blackhole blackhole) throws Exception {
+    probe(rowFilter, blackhole);
+  }
+
+  private void probe(GenericUDF udf, Blackhole blackhole) throws HiveException, SerDeException {
+    for (int i = 0; i < ROWS; i++) {
+      first.value = filter;
+      second.value = rows.rowOI.getStructFieldData(rows.row(i), valueField);
+      blackhole.consume(udf.evaluate(arguments));
+    }
+  }
+}
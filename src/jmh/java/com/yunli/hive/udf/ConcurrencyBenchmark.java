@@ -0,0 +1,206 @@
+package com.yunli.hive.udf;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 多线程下各函数的总吞吐量，模拟 LLAP / Spark executor 在一个 JVM 中同时运行多个 fragment
+ *
+ * 每个线程持有自己的函数实例和输入（Scope.Thread），与 Hive 为每个 fragment 反序列化一份执行计划一致；
+ * 线程之间只共享静态缓存（姓氏词典）。每个函数有 1 个线程和 Threads.MAX（CPU 核数）个线程两个基准，
+ * JMH 报告的是所有线程的总吞吐量，两者之比即扩展倍数，理想情况下接近核数。
+ * 每次调用处理 ROWS 行，结果按行计。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ConcurrencyBenchmark {
+
+  static final int ROWS = 4096;
+
+  private final Text[] names = new Text[ROWS];
+
+  private final String[] md5Inputs = new String[ROWS];
+
+  private final IntWritable[] ages = new IntWritable[ROWS];
+
+  private final String[] values = new String[ROWS];
+
+  private final List<String> array = Arrays.asList(BenchmarkInputs.GIVEN_NAMES);
+
+  private UDFMD5 md5;
+
+  private GenericUDF arrayContains;
+
+  private UDTFDictNameParser dictNameParser;
+
+  private GenericUDAFEvaluator avg;
+
+  private AggregationBuffer avgBuffer;
+
+  private final Object[] record = new Object[1];
+
+  private final Object[] parameters = new Object[1];
+
+  private final BenchmarkInputs.Argument first = new BenchmarkInputs.Argument();
+
+  private final BenchmarkInputs.Argument second = new BenchmarkInputs.Argument();
+
+  private final GenericUDF.DeferredObject[] arguments = new GenericUDF.DeferredObject[] {first, second};
+
+  private Blackhole blackhole;
+
+  @Setup
+  public void setUp() throws HiveException {
+    Random random = new Random(BenchmarkInputs.SEED);
+    for (int i = 0; i < ROWS; i++) {
+      names[i] = new Text(random.nextBoolean()
+          ? BenchmarkInputs.CHINESE_SURNAMES[random.nextInt(BenchmarkInputs.CHINESE_SURNAMES.length)]
+          + BenchmarkInputs.CHINESE_GIVEN_NAMES[random.nextInt(BenchmarkInputs.CHINESE_GIVEN_NAMES.length)]
+          : BenchmarkInputs.GIVEN_NAMES[random.nextInt(BenchmarkInputs.GIVEN_NAMES.length)] + " "
+          + BenchmarkInputs.SURNAMES[random.nextInt(BenchmarkInputs.SURNAMES.length)]);
+      md5Inputs[i] = names[i].toString() + i;
+      ages[i] = new IntWritable(18 + random.nextInt(50));
+      values[i] = random.nextInt(5) == 0 ? "missing"
+          : BenchmarkInputs.GIVEN_NAMES[random.nextInt(BenchmarkInputs.GIVEN_NAMES.length)];
+    }
+
+    md5 = new UDFMD5();
+
+    arrayContains = new UDFArrayContains();
+    arrayContains.initialize(new ObjectInspector[] {
+        ObjectInspectorFactory.getStandardListObjectInspector(
+            PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+        PrimitiveObjectInspectorFactory.javaStringObjectInspector});
+
+    dictNameParser = new UDTFDictNameParser();
+    dictNameParser.initialize(new ObjectInspector[] {PrimitiveObjectInspectorFactory.writableStringObjectInspector});
+    dictNameParser.setCollector(new Collector() {
+      @Override
+      public void collect(Object input) {
+        blackhole.consume(input);
+      }
+    });
+
+    avg = new UDAFAvg.AvgEvaluator();
+    avg.init(GenericUDAFEvaluator.Mode.PARTIAL1,
+        new ObjectInspector[] {PrimitiveObjectInspectorFactory.writableIntObjectInspector});
+    avgBuffer = avg.getNewAggregationBuffer();
+  }
+
+  private void md5(Blackhole blackhole) {
+    for (int i = 0; i < ROWS; i++) {
+      blackhole.consume(md5.evaluate(md5Inputs[i]));
+    }
+  }
+
+  private void arrayContains(Blackhole blackhole) throws HiveException {
+    for (int i = 0; i < ROWS; i++) {
+      first.value = array;
+      second.value = values[i];
+      blackhole.consume(arrayContains.evaluate(arguments));
+    }
+  }
+
+  private void dictNameParser(Blackhole blackhole) throws HiveException {
+    this.blackhole = blackhole;
+    for (int i = 0; i < ROWS; i++) {
+      record[0] = names[i];
+      dictNameParser.process(record);
+    }
+  }
+
+  private void avgIterate(Blackhole blackhole) throws HiveException {
+    avg.reset(avgBuffer);
+    for (int i = 0; i < ROWS; i++) {
+      parameters[0] = ages[i];
+      avg.iterate(avgBuffer, parameters);
+    }
+    blackhole.consume(avg.terminatePartial(avgBuffer));
+  }
+
+  @Benchmark
+  @Threads(1)
+  @OperationsPerInvocation(ROWS)
+  public void md5SingleThread(Blackhole blackhole) {
+    md5(blackhole);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  @OperationsPerInvocation(ROWS)
+  public void md5AllCores(Blackhole blackhole) {
+    md5(blackhole);
+  }
+
+  @Benchmark
+  @Threads(1)
+  @OperationsPerInvocation(ROWS)
+  public void arrayContainsSingleThread(Blackhole blackhole) throws Exception {
+    arrayContains(blackhole);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  @OperationsPerInvocation(ROWS)
+  public void arrayContainsAllCores(Blackhole blackhole) throws Exception {
+    arrayContains(blackhole);
+  }
+
+  @Benchmark
+  @Threads(1)
+  @OperationsPerInvocation(ROWS)
+  public void dictNameParserSingleThread(Blackhole blackhole) throws Exception {
+    dictNameParser(blackhole);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  @OperationsPerInvocation(ROWS)
+  public void dictNameParserAllCores(Blackhole blackhole) throws Exception {
+    dictNameParser(blackhole);
+  }
+
+  @Benchmark
+  @Threads(1)
+  @OperationsPerInvocation(ROWS)
+  public void avgIterateSingleThread(Blackhole blackhole) throws Exception {
+    avgIterate(blackhole);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  @OperationsPerInvocation(ROWS)
+  public void avgIterateAllCores(Blackhole blackhole) throws Exception {
+    avgIterate(blackhole);
+  }
+}
@@ -0,0 +1,80 @@
+package com.yunli.hive.udf;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDTF;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+
+/**
+ * 改为按字节切分之前的 UDTFNameParser，只作为 {@link NameParserBenchmark} 的对照组
+ *
+ * 每行先转换成 String，再用正则切分并为每个输出行分配新的数组。
+ */
+public class LegacyNameParser extends GenericUDTF {
+  private PrimitiveObjectInspector stringOI = null;
+
+  @Override
+  public StructObjectInspector initialize(ObjectInspector[] args) throws UDFArgumentException {
+    if (args.length != 1) {
+      throw new UDFArgumentException("LegacyNameParser() takes exactly one argument");
+    }
+
+    // input
+    stringOI = (PrimitiveObjectInspector) args[0];
+
+    // output
+    List<String> fieldNames = new ArrayList<String>(2);
+    List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>(2);
+    fieldNames.add("name");
+    fieldNames.add("surname");
+    fieldOIs.add(PrimitiveObjectInspectorFactory.javaStringObjectInspector);
+    fieldOIs.add(PrimitiveObjectInspectorFactory.javaStringObjectInspector);
+    return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+  }
+
+  public ArrayList<Object[]> processInputRecord(String name) {
+    ArrayList<Object[]> result = new ArrayList<Object[]>();
+
+    // ignoring null or empty input
+    if (name == null || name.isEmpty()) {
+      return result;
+    }
+
+    String[] tokens = name.split("\\s+");
+
+    if (tokens.length == 2) {
+      result.add(new Object[] {tokens[0], tokens[1]});
+    } else if (tokens.length == 4 && tokens[1].equals("and")) {
+      result.add(new Object[] {tokens[0], tokens[3]});
+      result.add(new Object[] {tokens[2], tokens[3]});
+    }
+
+    return result;
+  }
+
+  @Override
+  public void process(Object[] record) throws HiveException {
+    final String name = stringOI.getPrimitiveJavaObject(record[0]).toString();
+    ArrayList<Object[]> results = processInputRecord(name);
+
+    Iterator<Object[]> it = results.iterator();
+
+    while (it.hasNext()) {
+      Object[] r = it.next();
+      forward(r);
+    }
+  }
+
+  @Override
+  public void close() throws HiveException {
+    // do nothing
+  }
+}
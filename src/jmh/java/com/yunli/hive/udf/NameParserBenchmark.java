@@ -0,0 +1,146 @@
+package com.yunli.hive.udf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDTF;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * UDTFNameParser、UDTFDictNameParser 的吞吐量
+ *
+ * legacyNameParser 是改为按字节切分之前的实现，用于和 nameParser 对比吞吐量和分配速率。
+ * 每次调用处理 ROWS 行，结果按输入行计。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class NameParserBenchmark {
+
+  static final int ROWS = 4096;
+
+  /**
+   * "John and Ann White" 这类两个人共用一个姓氏的行所占的比例，其余为 "John Smith" 和少量无法解析的行
+   */
+  @Param({"0", "0.5"})
+  public double coupleRatio;
+
+  private LazyBinaryRows englishRows;
+
+  private LazyBinaryRows chineseRows;
+
+  private StructField englishField;
+
+  private StructField chineseField;
+
+  private GenericUDTF nameParser;
+
+  private GenericUDTF legacyNameParser;
+
+  private GenericUDTF dictNameParser;
+
+  private final Object[] record = new Object[1];
+
+  // 输出行交给当前调用的 Blackhole
+  private Blackhole blackhole;
+
+  @Setup
+  public void setUp() throws HiveException, SerDeException {
+    Random random = new Random(BenchmarkInputs.SEED);
+    List<Object> english = new ArrayList<Object>(ROWS);
+    List<Object> chinese = new ArrayList<Object>(ROWS);
+    for (int i = 0; i < ROWS; i++) {
+      String first = BenchmarkInputs.GIVEN_NAMES[random.nextInt(BenchmarkInputs.GIVEN_NAMES.length)];
+      String second = BenchmarkInputs.GIVEN_NAMES[random.nextInt(BenchmarkInputs.GIVEN_NAMES.length)];
+      String surname = BenchmarkInputs.SURNAMES[random.nextInt(BenchmarkInputs.SURNAMES.length)];
+      if (random.nextInt(20) == 0) {
+        english.add(BenchmarkInputs.row(first));
+      } else if (random.nextDouble() < coupleRatio) {
+        english.add(BenchmarkInputs.row(first + " and " + second + " " + surname));
+      } else {
+        english.add(BenchmarkInputs.row(first + " " + surname));
+      }
+
+      String name = chineseName(random);
+      if (random.nextDouble() < coupleRatio) {
+        name = name + (random.nextBoolean() ? "和" : "、") + chineseName(random);
+      }
+      chinese.add(BenchmarkInputs.row(name));
+    }
+    ObjectInspector rowOI = LazyBinaryRows.structOI("name", PrimitiveObjectInspectorFactory.javaStringObjectInspector);
+    englishRows = LazyBinaryRows.serialize("name", "string", rowOI, english);
+    chineseRows = LazyBinaryRows.serialize("name", "string", rowOI, chinese);
+    englishField = englishRows.field("name");
+    chineseField = chineseRows.field("name");
+
+    nameParser = newParser(new UDTFNameParser(), englishField);
+    legacyNameParser = newParser(new LegacyNameParser(), englishField);
+    dictNameParser = newParser(new UDTFDictNameParser(), chineseField);
+  }
+
+  private static String chineseName(Random random) {
+    return BenchmarkInputs.CHINESE_SURNAMES[random.nextInt(BenchmarkInputs.CHINESE_SURNAMES.length)]
+        + BenchmarkInputs.CHINESE_GIVEN_NAMES[random.nextInt(BenchmarkInputs.CHINESE_GIVEN_NAMES.length)];
+  }
+
+  private GenericUDTF newParser(GenericUDTF parser, StructField field) throws HiveException {
+    parser.initialize(new ObjectInspector[] {field.getFieldObjectInspector()});
+    parser.setCollector(new Collector() {
+      @Override
+      public void collect(Object input) throws HiveException {
+        blackhole.consume(input);
+      }
+    });
+    return parser;
+  }
+
+  private void process(GenericUDTF parser, LazyBinaryRows rows, StructField field, Blackhole blackhole)
+      throws Exception {
+    this.blackhole = blackhole;
+    for (int i = 0; i < ROWS; i++) {
+      record[0] = rows.rowOI.getStructFieldData(rows.row(i), field);
+      parser.process(record);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void nameParser(Blackhole blackhole) throws Exception {
+    process(nameParser, englishRows, englishField, blackhole);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void legacyNameParser(Blackhole blackhole) throws Exception {
+    process(legacyNameParser, englishRows, englishField, blackhole);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void dictNameParser(Blackhole blackhole) throws Exception {
+    process(dictNameParser, chineseRows, chineseField, blackhole);
+  }
+}
@@ -0,0 +1,273 @@
+package com.yunli.hive.udf;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.apache.hadoop.io.IntWritable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * UDAFAvg、UDAFCollect 的吞吐量
+ *
+ * 模拟 GROUP BY 的哈希聚合：每行按分组键取出聚合 Buffer 后调用 iterate()，
+ * 最后对每个分组输出 terminatePartial()/terminate()。FINAL 阶段的输入是
+ * SPLITS 个 map 端的部分聚合结果，经过 LazyBinary 序列化，与 reduce 端读到的数据一致，
+ * merge() 收到的是 LazyBinaryStruct、LazyBinaryArray、LazyBinaryMap。
+ * 每次调用处理 ROWS 行，结果按行计。avgMultiPhase 用 {@link UDAFHarness} 跑完整的
+ * PARTIAL1 -> FINAL 和 COMPLETE，包括阶段之间的序列化。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class UDAFBenchmark {
+
+  static final int ROWS = 16384;
+
+  static final int SPLITS = 8;
+
+  /**
+   * 分组个数
+   */
+  @Param({"1", "1000"})
+  public int groups;
+
+  /**
+   * 分组键的倾斜程度，0 为均匀分布，越大越集中在少数分组上
+   */
+  @Param({"0", "1.2"})
+  public double skew;
+
+  private LazyBinaryRows rows;
+
+  private StructField keyField;
+
+  private StructField ageField;
+
+  private StructField nameField;
+
+  private GenericUDAFEvaluator avg;
+
+  private GenericUDAFEvaluator avgFinal;
+
+  private LazyBinaryRows avgPartials;
+
+  private GenericUDAFEvaluator arrayCollect;
+
+  private GenericUDAFEvaluator arrayCollectFinal;
+
+  private LazyBinaryRows arrayCollectPartials;
+
+  private GenericUDAFEvaluator mapCollect;
+
+  private GenericUDAFEvaluator mapCollectFinal;
+
+  private LazyBinaryRows mapCollectPartials;
+
+  private UDAFHarness avgHarness;
+
+  private LazyBinaryRows avgHarnessInput;
+
+  @Setup
+  public void setUp() throws HiveException, SerDeException {
+    Random random = new Random(BenchmarkInputs.SEED);
+    Zipf key = new Zipf(groups, skew, BenchmarkInputs.SEED);
+    List<Object> input = new ArrayList<Object>(ROWS);
+    List<Object[]> ages = new ArrayList<Object[]>(ROWS);
+    for (int i = 0; i < ROWS; i++) {
+      // 与 staff 表类似，约 5% 的 age 和 name 为 NULL
+      Integer age = random.nextInt(20) == 0 ? null : 18 + random.nextInt(50);
+      String name = random.nextInt(20) == 0 ? null
+          : BenchmarkInputs.GIVEN_NAMES[random.nextInt(BenchmarkInputs.GIVEN_NAMES.length)] + " "
+          + BenchmarkInputs.SURNAMES[random.nextInt(BenchmarkInputs.SURNAMES.length)];
+      int k = key.next();
+      input.add(BenchmarkInputs.row(k, age, name));
+      ages.add(new Object[] {k, age});
+    }
+    rows = LazyBinaryRows.serialize("k,age,name", "int,int,string",
+        LazyBinaryRows.structOI("k,age,name",
+            PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+            PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+            PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+        input);
+    keyField = rows.field("k");
+    ageField = rows.field("age");
+    nameField = rows.field("name");
+
+    avg = new UDAFAvg.AvgEvaluator();
+    ObjectInspector avgPartialOI = avg.init(GenericUDAFEvaluator.Mode.PARTIAL1,
+        new ObjectInspector[] {ageField.getFieldObjectInspector()});
+    avgPartials = partials(avg, avgPartialOI, ageField, null);
+    avgFinal = new UDAFAvg.AvgEvaluator();
+    avgFinal.init(GenericUDAFEvaluator.Mode.FINAL,
+        new ObjectInspector[] {avgPartials.field("p").getFieldObjectInspector()});
+
+    arrayCollect = new UDAFCollect.ArrayCollectUDAFEvaluator();
+    ObjectInspector arrayPartialOI = arrayCollect.init(GenericUDAFEvaluator.Mode.PARTIAL1,
+        new ObjectInspector[] {nameField.getFieldObjectInspector()});
+    arrayCollectPartials = partials(arrayCollect, arrayPartialOI, nameField, null);
+    arrayCollectFinal = new UDAFCollect.ArrayCollectUDAFEvaluator();
+    arrayCollectFinal.init(GenericUDAFEvaluator.Mode.FINAL,
+        new ObjectInspector[] {arrayCollectPartials.field("p").getFieldObjectInspector()});
+
+    mapCollect = new UDAFCollect.MapCollectUDAFEvaluator();
+    ObjectInspector mapPartialOI = mapCollect.init(GenericUDAFEvaluator.Mode.PARTIAL1,
+        new ObjectInspector[] {nameField.getFieldObjectInspector(), ageField.getFieldObjectInspector()});
+    mapCollectPartials = partials(mapCollect, mapPartialOI, nameField, ageField);
+    mapCollectFinal = new UDAFCollect.MapCollectUDAFEvaluator();
+    mapCollectFinal.init(GenericUDAFEvaluator.Mode.FINAL,
+        new ObjectInspector[] {mapCollectPartials.field("p").getFieldObjectInspector()});
+
+    avgHarness = new UDAFHarness(new UDAFAvg(), "int").splits(SPLITS);
+    avgHarnessInput = avgHarness.serializeInput(ages);
+  }
+
+  /**
+   * 对 [start, end) 行做哈希聚合，second 不为 NULL 时作为第二个参数
+   */
+  private Map<Integer, AggregationBuffer> iterate(GenericUDAFEvaluator evaluator, int start, int end,
+      StructField first, StructField second) throws HiveException, SerDeException {
+    Map<Integer, AggregationBuffer> buffers = new HashMap<Integer, AggregationBuffer>();
+    Object[] parameters = new Object[second == null ? 1 : 2];
+    for (int i = start; i < end; i++) {
+      Object row = rows.row(i);
+      // 分组键由 serde 复用，取出 int 值作为哈希表的键
+      int k = ((IntWritable) rows.rowOI.getStructFieldData(row, keyField)).get();
+      AggregationBuffer buffer = buffers.get(k);
+      if (buffer == null) {
+        buffer = evaluator.getNewAggregationBuffer();
+        buffers.put(k, buffer);
+      }
+      parameters[0] = rows.rowOI.getStructFieldData(row, first);
+      if (second != null) {
+        parameters[1] = rows.rowOI.getStructFieldData(row, second);
+      }
+      evaluator.iterate(buffer, parameters);
+    }
+    return buffers;
+  }
+
+  /**
+   * 按 SPLITS 个 map 任务切分输入，生成 reduce 端读到的 (k, p) 部分聚合结果
+   */
+  private LazyBinaryRows partials(GenericUDAFEvaluator evaluator, ObjectInspector partialOI,
+      StructField first, StructField second) throws HiveException, SerDeException {
+    List<Object> partials = new ArrayList<Object>();
+    int splitSize = (ROWS + SPLITS - 1) / SPLITS;
+    for (int start = 0; start < ROWS; start += splitSize) {
+      Map<Integer, AggregationBuffer> buffers =
+          iterate(evaluator, start, Math.min(ROWS, start + splitSize), first, second);
+      for (Map.Entry<Integer, AggregationBuffer> entry : buffers.entrySet()) {
+        partials.add(BenchmarkInputs.row(new IntWritable(entry.getKey()), evaluator.terminatePartial(entry.getValue())));
+      }
+    }
+    String partialType = TypeInfoUtils.getTypeInfoFromObjectInspector(partialOI).getTypeName();
+    return LazyBinaryRows.serialize("k,p", "int," + partialType,
+        LazyBinaryRows.structOI("k,p", PrimitiveObjectInspectorFactory.writableIntObjectInspector, partialOI),
+        partials);
+  }
+
+  /**
+   * 合并全部部分聚合结果并输出每个分组的 terminate()，即一次完整的 reduce
+   */
+  private static void merge(GenericUDAFEvaluator evaluator, LazyBinaryRows partials, Blackhole blackhole)
+      throws HiveException, SerDeException {
+    StructField partialKeyField = partials.field("k");
+    StructField partialField = partials.field("p");
+    Map<Integer, AggregationBuffer> buffers = new HashMap<Integer, AggregationBuffer>();
+    for (int i = 0; i < partials.size(); i++) {
+      Object row = partials.row(i);
+      int k = ((IntWritable) partials.rowOI.getStructFieldData(row, partialKeyField)).get();
+      AggregationBuffer buffer = buffers.get(k);
+      if (buffer == null) {
+        buffer = evaluator.getNewAggregationBuffer();
+        buffers.put(k, buffer);
+      }
+      evaluator.merge(buffer, partials.rowOI.getStructFieldData(row, partialField));
+    }
+    for (AggregationBuffer buffer : buffers.values()) {
+      blackhole.consume(evaluator.terminate(buffer));
+    }
+  }
+
+  private void terminatePartial(GenericUDAFEvaluator evaluator, Map<Integer, AggregationBuffer> buffers,
+      Blackhole blackhole) throws HiveException {
+    for (AggregationBuffer buffer : buffers.values()) {
+      blackhole.consume(evaluator.terminatePartial(buffer));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void avgPartial1(Blackhole blackhole) throws Exception {
+    terminatePartial(avg, iterate(avg, 0, ROWS, ageField, null), blackhole);
+  }
+
+  /**
+   * 合并 SPLITS 份部分聚合结果，按一次完整的 reduce 计
+   */
+  @Benchmark
+  public void avgFinal(Blackhole blackhole) throws Exception {
+    merge(avgFinal, avgPartials, blackhole);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public UDAFHarness.Result avgMultiPhase() throws Exception {
+    return avgHarness.run(avgHarnessInput);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void arrayCollectPartial1(Blackhole blackhole) throws Exception {
+    terminatePartial(arrayCollect, iterate(arrayCollect, 0, ROWS, nameField, null), blackhole);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void mapCollectPartial1(Blackhole blackhole) throws Exception {
+    terminatePartial(mapCollect, iterate(mapCollect, 0, ROWS, nameField, ageField), blackhole);
+  }
+
+  /**
+   * 合并 SPLITS 份 LazyBinaryArray 部分聚合结果，按一次完整的 reduce 计
+   */
+  @Benchmark
+  public void arrayCollectFinal(Blackhole blackhole) throws Exception {
+    merge(arrayCollectFinal, arrayCollectPartials, blackhole);
+  }
+
+  /**
+   * 合并 SPLITS 份 LazyBinaryMap 部分聚合结果，按一次完整的 reduce 计
+   */
+  @Benchmark
+  public void mapCollectFinal(Blackhole blackhole) throws Exception {
+    merge(mapCollectFinal, mapCollectPartials, blackhole);
+  }
+}
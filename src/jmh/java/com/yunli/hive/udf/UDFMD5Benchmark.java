@@ -0,0 +1,89 @@
+package com.yunli.hive.udf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDFBridge;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * UDFMD5 的吞吐量
+ *
+ * 老式 UDF 通过 GenericUDFBridge 调用，与 Hive 执行时的反射和参数转换路径一致。
+ * 每次调用处理 ROWS 行，结果按行计。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class UDFMD5Benchmark {
+
+  static final int ROWS = 4096;
+
+  /**
+   * MD5 输入字符串的长度
+   */
+  @Param({"16", "256"})
+  public int stringLength;
+
+  private LazyBinaryRows rows;
+
+  private StructField stringField;
+
+  private GenericUDF md5;
+
+  private final BenchmarkInputs.Argument first = new BenchmarkInputs.Argument();
+
+  private final GenericUDF.DeferredObject[] arguments = new GenericUDF.DeferredObject[] {first};
+
+  @Setup
+  public void setUp() throws HiveException, SerDeException {
+    Random random = new Random(BenchmarkInputs.SEED);
+    List<Object> input = new ArrayList<Object>(ROWS);
+    for (int i = 0; i < ROWS; i++) {
+      StringBuilder s = new StringBuilder(stringLength);
+      while (s.length() < stringLength) {
+        s.append((char) ('a' + random.nextInt(26)));
+      }
+      input.add(BenchmarkInputs.row(s.toString()));
+    }
+    rows = LazyBinaryRows.serialize("s", "string",
+        LazyBinaryRows.structOI("s", PrimitiveObjectInspectorFactory.javaStringObjectInspector), input);
+    stringField = rows.field("s");
+
+    md5 = new GenericUDFBridge("my_udf_md5", false, UDFMD5.class.getName());
+    md5.initialize(new ObjectInspector[] {stringField.getFieldObjectInspector()});
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void md5(Blackhole blackhole) throws Exception {
+    for (int i = 0; i < ROWS; i++) {
+      Object row = rows.row(i);
+      first.value = rows.rowOI.getStructFieldData(row, stringField);
+      blackhole.consume(md5.evaluate(arguments));
+    }
+  }
+}
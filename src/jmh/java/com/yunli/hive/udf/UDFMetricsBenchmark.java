@@ -0,0 +1,131 @@
+package com.yunli.hive.udf;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link UDFMetrics} 的开销
+ *
+ * 选择单行开销最小的 UDAFAvg.iterate() 和短数组上的 UDFArrayContains，输入预先物化为
+ * Writable 对象，不经过 serde，使指标的开销尽量显露出来：
+ * none     不调用 configure()，与本地 fetch 任务相同
+ * disabled 调用 configure()，但没有 set yunli.udf.metrics=true
+ * enabled  开启指标，计数器写入 Reporter.NULL
+ * none 与 disabled 的差异应在误差范围内。每次调用处理 ROWS 行，结果按行计。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class UDFMetricsBenchmark {
+
+  static final int ROWS = 4096;
+
+  @Param({"none", "disabled", "enabled"})
+  public String metrics;
+
+  private final IntWritable[] ages = new IntWritable[ROWS];
+
+  private final List<String> array = Arrays.asList(BenchmarkInputs.GIVEN_NAMES).subList(0, 4);
+
+  private final String[] values = new String[ROWS];
+
+  private GenericUDAFEvaluator avg;
+
+  private AggregationBuffer avgBuffer;
+
+  private GenericUDF arrayContains;
+
+  private final Object[] parameters = new Object[1];
+
+  private final BenchmarkInputs.Argument first = new BenchmarkInputs.Argument();
+
+  private final BenchmarkInputs.Argument second = new BenchmarkInputs.Argument();
+
+  private final GenericUDF.DeferredObject[] arguments = new GenericUDF.DeferredObject[] {first, second};
+
+  @Setup
+  public void setUp() throws HiveException {
+    Random random = new Random(BenchmarkInputs.SEED);
+    for (int i = 0; i < ROWS; i++) {
+      ages[i] = random.nextInt(20) == 0 ? null : new IntWritable(18 + random.nextInt(50));
+      values[i] = BenchmarkInputs.GIVEN_NAMES[random.nextInt(BenchmarkInputs.GIVEN_NAMES.length)];
+    }
+
+    avg = new UDAFAvg.AvgEvaluator();
+    arrayContains = new UDFArrayContains();
+    if (!"none".equals(metrics)) {
+      JobConf conf = new JobConf();
+      conf.setBoolean(UDFMetrics.ENABLED, "enabled".equals(metrics));
+      MapredContext context = MapredContext.init(true, conf);
+      context.setReporter(Reporter.NULL);
+      avg.configure(context);
+      arrayContains.configure(context);
+    }
+    avg.init(GenericUDAFEvaluator.Mode.PARTIAL1,
+        new ObjectInspector[] {PrimitiveObjectInspectorFactory.writableIntObjectInspector});
+    avgBuffer = avg.getNewAggregationBuffer();
+    arrayContains.initialize(new ObjectInspector[] {
+        ObjectInspectorFactory.getStandardListObjectInspector(
+            PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+        PrimitiveObjectInspectorFactory.javaStringObjectInspector});
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    avg.close();
+    arrayContains.close();
+    MapredContext.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void avgIterate(Blackhole blackhole) throws Exception {
+    avg.reset(avgBuffer);
+    for (int i = 0; i < ROWS; i++) {
+      parameters[0] = ages[i];
+      avg.iterate(avgBuffer, parameters);
+    }
+    blackhole.consume(avg.terminatePartial(avgBuffer));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void arrayContains(Blackhole blackhole) throws Exception {
+    for (int i = 0; i < ROWS; i++) {
+      first.value = array;
+      second.value = values[i];
+      blackhole.consume(arrayContains.evaluate(arguments));
+    }
+  }
+}
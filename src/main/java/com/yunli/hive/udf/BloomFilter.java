@@ -0,0 +1,271 @@
+package com.yunli.hive.udf;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.hadoop.hive.serde2.io.HiveCharWritable;
+import org.apache.hadoop.hive.serde2.io.HiveVarcharWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * 定长位图实现的 Bloom filter，供 {@link UDAFBloomFilter} 构建、{@link UDFBloomContains} 探测
+ *
+ * 采用 Kirsch-Mitzenmacher 双重哈希：每个值只计算一次 64 位哈希，
+ * 由高低 32 位组合出 k 个位置，探测代价为 O(k)。也可以不反序列化，直接在序列化后的字节上探测，
+ * 代价同样为 O(k)，与 filter 大小无关。
+ *
+ * 序列化格式（大端）：
+ * 1 字节 哈希函数个数 | 4 字节 long 个数 | long 数组
+ */
+final class BloomFilter {
+
+  static final long DEFAULT_EXPECTED_ITEMS = 1000000L;
+
+  static final double DEFAULT_FPP = 0.03;
+
+  private static final int HEADER_BYTES = 1 + 4;
+
+  private static final long SEED = 0x9747b28cL;
+
+  private final int numHashFunctions;
+
+  private final long[] bits;
+
+  private final long numBits;
+
+  private BloomFilter(int numHashFunctions, long[] bits) {
+    this.numHashFunctions = numHashFunctions;
+    this.bits = bits;
+    this.numBits = (long) bits.length << 6;
+  }
+
+  static BloomFilter create(long expectedItems, double fpp) {
+    long numBits = optimalNumBits(expectedItems, fpp);
+    return new BloomFilter(optimalNumHashFunctions(expectedItems, numBits), new long[(int) ((numBits + 63) >>> 6)]);
+  }
+
+  /**
+   * 位置由非负 int 取模得到，所以位数上限为 2^31
+   */
+  static long optimalNumBits(long n, double p) {
+    long m = (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+    return Math.min(1L << 31, Math.max(64, m));
+  }
+
+  static int optimalNumHashFunctions(long n, long m) {
+    return Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+  }
+
+  void add(long hash) {
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    for (int i = 1; i <= numHashFunctions; i++) {
+      int combined = h1 + i * h2;
+      if (combined < 0) {
+        combined = ~combined;
+      }
+      long pos = combined % numBits;
+      bits[(int) (pos >>> 6)] |= 1L << pos;
+    }
+  }
+
+  boolean mightContain(long hash) {
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    for (int i = 1; i <= numHashFunctions; i++) {
+      int combined = h1 + i * h2;
+      if (combined < 0) {
+        combined = ~combined;
+      }
+      long pos = combined % numBits;
+      if ((bits[(int) (pos >>> 6)] & (1L << pos)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * 直接在序列化后的字节上探测，与反序列化后调用 {@link #mightContain(long)} 的结果相同
+   *
+   * @throws IllegalArgumentException 不是合法的序列化 filter
+   */
+  static boolean mightContain(byte[] bytes, int length, long hash) {
+    int numHashFunctions = checkHeader(bytes, length);
+    long numBits = (long) (length - HEADER_BYTES) << 3;
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    for (int i = 1; i <= numHashFunctions; i++) {
+      int combined = h1 + i * h2;
+      if (combined < 0) {
+        combined = ~combined;
+      }
+      long pos = combined % numBits;
+      // long 按大端序写出，第 pos 位在第 pos / 64 个 long 中从后往前数的第 (pos % 64) / 8 个字节
+      int index = HEADER_BYTES + (int) (pos >>> 6) * 8 + 7 - (int) ((pos & 63) >>> 3);
+      if ((bytes[index] & (1 << (pos & 7))) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * 按位或合并另一个序列化后的 filter，两者的参数必须一致
+   */
+  void merge(byte[] bytes, int length) {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+    checkCompatible(buffer.get() & 0xff, buffer.getInt());
+    for (int i = 0; i < bits.length; i++) {
+      bits[i] |= buffer.getLong();
+    }
+  }
+
+  int serializedSize() {
+    return HEADER_BYTES + bits.length * 8;
+  }
+
+  byte[] serialize() {
+    ByteBuffer buffer = ByteBuffer.allocate(serializedSize());
+    buffer.put((byte) numHashFunctions);
+    buffer.putInt(bits.length);
+    for (long word : bits) {
+      buffer.putLong(word);
+    }
+    return buffer.array();
+  }
+
+  static BloomFilter deserialize(byte[] bytes, int length) {
+    int numHashFunctions = checkHeader(bytes, length);
+    long[] bits = new long[(length - HEADER_BYTES) >>> 3];
+    ByteBuffer.wrap(bytes, HEADER_BYTES, length - HEADER_BYTES).asLongBuffer().get(bits);
+    return new BloomFilter(numHashFunctions, bits);
+  }
+
+  /**
+   * 检查头部与长度是否一致，返回哈希函数个数
+   */
+  private static int checkHeader(byte[] bytes, int length) {
+    if (length >= HEADER_BYTES) {
+      int numHashFunctions = bytes[0] & 0xff;
+      int numLongs = (bytes[1] & 0xff) << 24 | (bytes[2] & 0xff) << 16 | (bytes[3] & 0xff) << 8 | (bytes[4] & 0xff);
+      if (numHashFunctions != 0 && numLongs > 0 && length == HEADER_BYTES + (long) numLongs * 8) {
+        return numHashFunctions;
+      }
+    }
+    throw new IllegalArgumentException("Invalid bloom filter of " + length + " bytes");
+  }
+
+  private void checkCompatible(int otherNumHashFunctions, int otherNumLongs) {
+    if (otherNumHashFunctions != numHashFunctions || otherNumLongs != bits.length) {
+      throw new IllegalArgumentException("Cannot merge bloom filters with different sizes: "
+          + numHashFunctions + "/" + bits.length + " vs " + otherNumHashFunctions + "/" + otherNumLongs);
+    }
+  }
+
+  /**
+   * 计算原始值的 64 位哈希
+   *
+   * 整数类型统一按 long 哈希，所以 int 列构建的 filter 可以用 bigint 探测；
+   * 字符串按 UTF-8 字节哈希，直接读取 Text 的字节，不产生 String 对象。
+   */
+  static long hash(Object o, PrimitiveObjectInspector oi) {
+    switch (oi.getPrimitiveCategory()) {
+      case BOOLEAN:
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+        return hashLong(PrimitiveObjectInspectorUtils.getLong(o, oi));
+      case FLOAT:
+      case DOUBLE:
+        return hashLong(Double.doubleToLongBits(PrimitiveObjectInspectorUtils.getDouble(o, oi)));
+      case STRING: {
+        Text t = (Text) oi.getPrimitiveWritableObject(o);
+        return hashBytes(t.getBytes(), 0, t.getLength());
+      }
+      case VARCHAR: {
+        Text t = ((HiveVarcharWritable) oi.getPrimitiveWritableObject(o)).getTextValue();
+        return hashBytes(t.getBytes(), 0, t.getLength());
+      }
+      case CHAR: {
+        Text t = ((HiveCharWritable) oi.getPrimitiveWritableObject(o)).getStrippedValue();
+        return hashBytes(t.getBytes(), 0, t.getLength());
+      }
+      case BINARY: {
+        BytesWritable b = PrimitiveObjectInspectorUtils.getBinary(o, oi);
+        return hashBytes(b.getBytes(), 0, b.getLength());
+      }
+      default:
+        byte[] bytes = PrimitiveObjectInspectorUtils.getString(o, oi).getBytes(StandardCharsets.UTF_8);
+        return hashBytes(bytes, 0, bytes.length);
+    }
+  }
+
+  static long hashLong(long v) {
+    return fmix64(v ^ SEED);
+  }
+
+  /**
+   * MurmurHash64A
+   */
+  static long hashBytes(byte[] data, int offset, int length) {
+    final long m = 0xc6a4a7935bd1e995L;
+    final int r = 47;
+    long h = SEED ^ (length * m);
+
+    int end = offset + (length & ~7);
+    for (int i = offset; i < end; i += 8) {
+      long k = (data[i] & 0xffL)
+          | (data[i + 1] & 0xffL) << 8
+          | (data[i + 2] & 0xffL) << 16
+          | (data[i + 3] & 0xffL) << 24
+          | (data[i + 4] & 0xffL) << 32
+          | (data[i + 5] & 0xffL) << 40
+          | (data[i + 6] & 0xffL) << 48
+          | (data[i + 7] & 0xffL) << 56;
+      k *= m;
+      k ^= k >>> r;
+      k *= m;
+      h ^= k;
+      h *= m;
+    }
+
+    switch (length & 7) {
+      case 7:
+        h ^= (data[end + 6] & 0xffL) << 48;
+      case 6:
+        h ^= (data[end + 5] & 0xffL) << 40;
+      case 5:
+        h ^= (data[end + 4] & 0xffL) << 32;
+      case 4:
+        h ^= (data[end + 3] & 0xffL) << 24;
+      case 3:
+        h ^= (data[end + 2] & 0xffL) << 16;
+      case 2:
+        h ^= (data[end + 1] & 0xffL) << 8;
+      case 1:
+        h ^= data[end] & 0xffL;
+        h *= m;
+      default:
+        break;
+    }
+
+    h ^= h >>> r;
+    h *= m;
+    h ^= h >>> r;
+    return h;
+  }
+
+  private static long fmix64(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb3f99a1c5c69L;
+    k ^= k >>> 33;
+    return k;
+  }
+}
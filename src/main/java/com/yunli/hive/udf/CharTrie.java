@@ -0,0 +1,134 @@
+package com.yunli.hive.udf;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 只读的字符 trie，用于姓氏词典和分隔词的最长匹配
+ *
+ * 构建完成后所有节点压平成几个数组：节点 i 的子节点标签为
+ * labels[childStart[i], childStart[i + 1])，按字符升序排列，逐字符二分查找。
+ * 构建一次之后可被多个线程共享。
+ */
+final class CharTrie {
+
+  private final int[] childStart;
+
+  private final char[] labels;
+
+  private final int[] targets;
+
+  private final boolean[] terminal;
+
+  private final int maxWordLength;
+
+  private CharTrie(int[] childStart, char[] labels, int[] targets, boolean[] terminal, int maxWordLength) {
+    this.childStart = childStart;
+    this.labels = labels;
+    this.targets = targets;
+    this.terminal = terminal;
+    this.maxWordLength = maxWordLength;
+  }
+
+  private static class Node {
+    final TreeMap<Character, Node> children = new TreeMap<Character, Node>();
+
+    boolean terminal;
+
+    int id;
+  }
+
+  static CharTrie build(Collection<String> words) {
+    Node root = new Node();
+    int maxWordLength = 0;
+    for (String word : words) {
+      if (word == null || word.isEmpty()) {
+        continue;
+      }
+      Node node = root;
+      for (int i = 0; i < word.length(); i++) {
+        Character c = word.charAt(i);
+        Node child = node.children.get(c);
+        if (child == null) {
+          child = new Node();
+          node.children.put(c, child);
+        }
+        node = child;
+      }
+      node.terminal = true;
+      maxWordLength = Math.max(maxWordLength, word.length());
+    }
+
+    // 按广度优先编号，子节点的标签连续存放
+    List<Node> nodes = new ArrayList<Node>();
+    nodes.add(root);
+    for (int i = 0; i < nodes.size(); i++) {
+      for (Node child : nodes.get(i).children.values()) {
+        child.id = nodes.size();
+        nodes.add(child);
+      }
+    }
+
+    int n = nodes.size();
+    int[] childStart = new int[n + 1];
+    char[] labels = new char[n - 1];
+    int[] targets = new int[n - 1];
+    boolean[] terminal = new boolean[n];
+    int edge = 0;
+    for (int i = 0; i < n; i++) {
+      Node node = nodes.get(i);
+      childStart[i] = edge;
+      terminal[i] = node.terminal;
+      for (Map.Entry<Character, Node> entry : node.children.entrySet()) {
+        labels[edge] = entry.getKey();
+        targets[edge] = entry.getValue().id;
+        edge++;
+      }
+    }
+    childStart[n] = edge;
+    return new CharTrie(childStart, labels, targets, terminal, maxWordLength);
+  }
+
+  /**
+   * 从 start 开始、不越过 end 的最长匹配词的长度，没有匹配时返回 0
+   */
+  int longestMatch(CharSequence s, int start, int end) {
+    int node = 0;
+    int longest = 0;
+    int limit = Math.min(end, start + maxWordLength);
+    for (int i = start; i < limit; i++) {
+      node = child(node, s.charAt(i));
+      if (node < 0) {
+        break;
+      }
+      if (terminal[node]) {
+        longest = i - start + 1;
+      }
+    }
+    return longest;
+  }
+
+  private int child(int node, char c) {
+    int lo = childStart[node];
+    int hi = childStart[node + 1] - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      char label = labels[mid];
+      if (label < c) {
+        lo = mid + 1;
+      } else if (label > c) {
+        hi = mid - 1;
+      } else {
+        return targets[mid];
+      }
+    }
+    return -1;
+  }
+
+  int size() {
+    return terminal.length;
+  }
+}
@@ -1,10 +1,12 @@
 package com.yunli.hive.udf;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
 import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.MapredContext;
 import org.apache.hadoop.hive.ql.exec.UDAF;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
@@ -13,11 +15,14 @@ import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFParameterInfo;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFResolver2;
-import org.apache.hadoop.hive.serde2.lazybinary.LazyBinaryStruct;
+import org.apache.hadoop.hive.ql.util.JavaDataModel;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
 import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.IntWritable;
@@ -110,6 +115,23 @@ public class UDAFAvg implements GenericUDAFResolver2 {
 
   public static class AvgEvaluator extends GenericUDAFEvaluator {
 
+    // For PARTIAL1 and COMPLETE: ObjectInspectors for original data
+    private transient PrimitiveObjectInspector inputOI;
+
+    // For PARTIAL2 and FINAL: ObjectInspectors for partial aggregations (struct<sum:int, count:int>)
+    private transient StructObjectInspector partialOI;
+
+    private transient StructField sumField;
+
+    private transient StructField countField;
+
+    private transient UDFMetrics metrics = UDFMetrics.DISABLED;
+
+    @Override
+    public void configure(MapredContext mapredContext) {
+      metrics = UDFMetrics.create(mapredContext, UDAFAvg.class);
+    }
+
     /**
      * 聚合过程中，用于保存中间结果的 Buffer
      * 继承 AbstractAggregationBuffer
@@ -117,12 +139,22 @@ public class UDAFAvg implements GenericUDAFResolver2 {
      * 对于计算平均数，我们首先要计算总和(sum)和总数(count)
      * 最后用 总和 / 总数 就可以得到平均数
      */
+    @AggregationType(estimable = true)
     private static class AvgBuffer extends AbstractAggregationBuffer {
       // 总和
       private Integer sum = 0;
 
       // 总数
       private Integer count = 0;
+
+      /**
+       * Buffer 的大小固定：对象头加上两个 Integer 字段及其指向的 Integer 对象
+       */
+      @Override
+      public int estimate() {
+        JavaDataModel model = JavaDataModel.get();
+        return model.object() + 2 * (model.ref() + model.object() + model.primitive1());
+      }
     }
 
     /**
@@ -139,6 +171,14 @@ public class UDAFAvg implements GenericUDAFResolver2 {
     @Override
     public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
       super.init(m, parameters);
+      if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+        inputOI = (PrimitiveObjectInspector) parameters[0];
+      } else {
+        // 部分聚合结果的结构体，经过 shuffle 后通常是 LazyBinaryStruct，但不能依赖具体的类型
+        partialOI = (StructObjectInspector) parameters[0];
+        sumField = partialOI.getStructFieldRef("sum");
+        countField = partialOI.getStructFieldRef("count");
+      }
       if (m == Mode.PARTIAL1 || m == Mode.PARTIAL2) {
         // 在 PARTIAL1 和 PARTIAL2 模式，代表 terminatePartial() 的返回值类型
         // terminatePartial() 返回的是部分聚合结果，这时候需要传递 sum 和 count，所以返回类型是结构体
@@ -185,16 +225,19 @@ public class UDAFAvg implements GenericUDAFResolver2 {
      */
     @Override
     public void iterate(AggregationBuffer agg, Object[] parameters) throws HiveException {
+      metrics.rowIn();
       if (parameters == null || parameters[0] == null) {
+        metrics.nullSkipped();
         return;
       }
 
-      if (parameters[0] instanceof IntWritable) {
-        // 计算总和
-        ((AvgBuffer) agg).sum += ((IntWritable) parameters[0]).get();
-        // 计算总数
-        ((AvgBuffer) agg).count += 1;
-      }
+      long start = metrics.start();
+      // 原始数据可能是 IntWritable，也可能是文本表的 LazyInteger 等，通过 ObjectInspector 读取
+      // 计算总和
+      ((AvgBuffer) agg).sum += PrimitiveObjectInspectorUtils.getInt(parameters[0], inputOI);
+      // 计算总数
+      ((AvgBuffer) agg).count += 1;
+      metrics.stop(start);
     }
 
     /**
@@ -205,6 +248,8 @@ public class UDAFAvg implements GenericUDAFResolver2 {
      */
     @Override
     public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+      metrics.rowsOut(1);
+      metrics.bufferSize(((AvgBuffer) agg).estimate());
       // 传递中间结果时，必须传递 总和、总数
       // 这里需要返回一个数组，表示结构体
       return new Object[] {
@@ -223,10 +268,17 @@ public class UDAFAvg implements GenericUDAFResolver2 {
      */
     @Override
     public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+      metrics.rowIn();
       if (partial != null) {
-        // 传递过来的结构体为 LazyBinaryStruct 类型，需要从中提取数据
-        ((AvgBuffer) agg).sum += ((IntWritable) ((LazyBinaryStruct) partial).getField(0)).get();
-        ((AvgBuffer) agg).count += ((IntWritable) ((LazyBinaryStruct) partial).getField(1)).get();
+        long start = metrics.start();
+        // 传递过来的结构体可能是 LazyBinaryStruct，也可能是 Object[] 等，统一通过 ObjectInspector 提取数据
+        ((AvgBuffer) agg).sum += PrimitiveObjectInspectorUtils.getInt(
+            partialOI.getStructFieldData(partial, sumField),
+            (PrimitiveObjectInspector) sumField.getFieldObjectInspector());
+        ((AvgBuffer) agg).count += PrimitiveObjectInspectorUtils.getInt(
+            partialOI.getStructFieldData(partial, countField),
+            (PrimitiveObjectInspector) countField.getFieldObjectInspector());
+        metrics.stop(start);
       }
     }
 
@@ -237,8 +289,15 @@ public class UDAFAvg implements GenericUDAFResolver2 {
      */
     @Override
     public Object terminate(AggregationBuffer agg) throws HiveException {
+      metrics.rowsOut(1);
+      metrics.bufferSize(((AvgBuffer) agg).estimate());
       // 总和 / 总数
       return new DoubleWritable(1.0 * ((AvgBuffer) agg).sum / ((AvgBuffer) agg).count);
     }
+
+    @Override
+    public void close() throws IOException {
+      metrics.flush();
+    }
   }
 }
@@ -1,21 +1,49 @@
 package com.yunli.hive.udf;
 
+import org.apache.hadoop.hive.common.type.HiveDecimal;
 import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.MapredContext;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.parse.SemanticException;
 import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFParameterInfo;
+import org.apache.hadoop.hive.ql.util.JavaDataModel;
+import org.apache.hadoop.hive.serde2.io.ByteWritable;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.io.HiveDecimalWritable;
+import org.apache.hadoop.hive.serde2.io.ShortWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.MapObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
 import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
 import org.apache.hadoop.hive.serde2.objectinspector.StandardListObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.StandardMapObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.typeinfo.DecimalTypeInfo;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
-
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -59,19 +87,97 @@ import java.util.HashMap;
  * hive> SELECT default.my_collect(name) from staff;
  * 结果：
  * ["张三","李四","王五","陈六","郑七","贾八","张三","李四","王五","陈六","郑七","贾八","angle","zyy--"]
+ *
+ * 两个参数时返回 map，重复的 key 保留最后到达的 value。第三个参数为常量 sum、count、min、max 或 last 时，
+ * 重复 key 的 value 按该函数合并，不需要再 explode 后二次聚合；last 需要第四个参数作为排序依据：
+ * hive> SELECT corporation_id, default.my_collect(name, age, 'sum') from staff group by corporation_id;
+ * 结果：
+ * NULL	{}
+ * 1	{"张三":60,"贾八":132,"zyy--":30,"angle":99999}
+ * 2	{"李四":null,"王五":100}
+ * 3	{"陈六":36,"郑七":36}
+ *
+ * hive> SELECT corporation_id, default.my_collect(name, age, 'last', id) from staff group by corporation_id;
+ * 结果：
+ * NULL	{}
+ * 1	{"张三":30,"贾八":66,"zyy--":30,"angle":99999}
+ * 2	{"李四":null,"王五":50}
+ * 3	{"陈六":18,"郑七":18}
  */
 @Description(name = "collect",
-    value = "_FUNC_(x) - Returns an array of all the elements in the aggregation group ",
-    extended = "Example:\n  > SELECT _FUNC_(field1) FROM src;\n "
+    value = "_FUNC_(x) - Returns an array of all the elements in the aggregation group\n"
+        + "_FUNC_(k, v) - Returns a map of k to v, keeping the last v of a duplicate k\n"
+        + "_FUNC_(k, v, 'sum'|'count'|'min'|'max') - Returns a map of k to the sum, count, min or max of its v\n"
+        + "_FUNC_(k, v, 'last', order) - Returns a map of k to the v with the largest order",
+    extended = "sum returns bigint for integer v, double for float/double v and decimal(p+10,s) for decimal(p,s) v "
+        + "(at most 38 digits, NULL on overflow); count returns the number of non-NULL v as bigint; "
+        + "min, max and last return the type of v. last ignores rows whose order is NULL. "
+        + "A k without any non-NULL v maps to NULL (0 for count).\n"
+        + "Example:\n  > SELECT _FUNC_(field1) FROM src;\n"
+        + "  > SELECT _FUNC_(name, age, 'sum') FROM staff GROUP BY corporation_id;\n"
+        + "  > SELECT _FUNC_(name, age, 'last', id) FROM staff GROUP BY corporation_id;\n "
 )
 public class UDAFCollect extends AbstractGenericUDAFResolver {
+  /**
+   * 三个或四个参数时需要读取常量参数 combine，只能通过 GenericUDAFParameterInfo 拿到 ObjectInspector
+   */
+  @Override
+  public GenericUDAFEvaluator getEvaluator(GenericUDAFParameterInfo info) throws SemanticException {
+    ObjectInspector[] parameters = info.getParameterObjectInspectors();
+    if (parameters.length != 3 && parameters.length != 4) {
+      return super.getEvaluator(info);
+    }
+    Combine combine = Combine.read(parameters[2]);
+    if (combine == Combine.LAST && parameters.length != 4) {
+      throw new UDFArgumentTypeException(2, "last needs a fourth argument to order the values by.");
+    }
+    if (combine != Combine.LAST && parameters.length != 3) {
+      throw new UDFArgumentTypeException(3, "Only last accepts a fourth argument.");
+    }
+    if (parameters[0].getCategory() != ObjectInspector.Category.PRIMITIVE) {
+      throw new UDFArgumentTypeException(0,
+          "Only primitive type keys are accepted but " + parameters[0].getTypeName() + " is passed.");
+    }
+    if ((combine == Combine.SUM || combine == Combine.MIN || combine == Combine.MAX)
+        && !isPrimitive(parameters[1], combine == Combine.SUM)) {
+      throw new UDFArgumentTypeException(1, (combine == Combine.SUM ? "Numeric" : "Primitive")
+          + " type values are expected by " + combine.name().toLowerCase() + " but "
+          + parameters[1].getTypeName() + " is passed.");
+    }
+    if (combine == Combine.LAST && parameters[3].getCategory() != ObjectInspector.Category.PRIMITIVE) {
+      throw new UDFArgumentTypeException(3,
+          "Only primitive type orders are accepted but " + parameters[3].getTypeName() + " is passed.");
+    }
+    // evaluator 只按类名随执行计划下发，combine 由各个 task 在 init() 中重新读取
+    return new MapCombineUDAFEvaluator();
+  }
+
+  private static boolean isPrimitive(ObjectInspector oi, boolean numeric) {
+    if (oi.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+      return false;
+    }
+    switch (((PrimitiveObjectInspector) oi).getPrimitiveCategory()) {
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+      case FLOAT:
+      case DOUBLE:
+      case DECIMAL:
+        return true;
+      default:
+        return !numeric;
+    }
+  }
+
   @Override
   public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters)
       throws SemanticException {
     // TODO Auto-generated method stub
     if (parameters.length != 1 && parameters.length != 2) {
       throw new UDFArgumentTypeException(parameters.length - 1,
-          "One argument is expected to return an Array, Two arguments are expected for a Map.");
+          "One argument is expected to return an Array, Two arguments are expected for a Map, "
+              + "three or four arguments are expected for a Map with combined values.");
     }
     if (parameters.length == 1) {
       return new ArrayCollectUDAFEvaluator();
@@ -88,11 +194,27 @@ public class UDAFCollect extends AbstractGenericUDAFResolver {
     // of objs)
     private StandardListObjectInspector loi;
 
-    private StandardListObjectInspector internalMergeOI;
+    // 经过 shuffle 后是 LazyBinaryListObjectInspector，不一定是 StandardListObjectInspector
+    private ListObjectInspector internalMergeOI;
 
+    private transient UDFMetrics metrics = UDFMetrics.DISABLED;
 
-    static class ArrayAggBuffer implements AggregationBuffer {
+    @Override
+    public void configure(MapredContext mapredContext) {
+      metrics = UDFMetrics.create(mapredContext, UDAFCollect.class);
+    }
+
+    @AggregationType(estimable = true)
+    static class ArrayAggBuffer extends AbstractAggregationBuffer {
       ArrayList collectArray = new ArrayList();
+
+      // 已收集的元素的估算大小，插入时累加
+      int bytes;
+
+      @Override
+      public int estimate() {
+        return estimateList(collectArray.size()) + bytes;
+      }
     }
 
     @Override
@@ -101,24 +223,18 @@ public class UDAFCollect extends AbstractGenericUDAFResolver {
       super.init(m, parameters);
       // init output object inspectors
       // The output of a partial aggregation is a list
-      if (m == Mode.PARTIAL1) {
+      // 按聚合模式区分输入，不能按 ObjectInspector 的具体类型区分：
+      // reduce 端读到的部分聚合结果是 LazyBinaryArray，而 COMPLETE 模式读到的原始数据也可能是 Lazy 对象
+      if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
         inputOI = parameters[0];
         return ObjectInspectorFactory
             .getStandardListObjectInspector(ObjectInspectorUtils
                 .getStandardObjectInspector(inputOI));
       } else {
-        if (!(parameters[0] instanceof StandardListObjectInspector)) {
-          //no map aggregation.
-          inputOI = ObjectInspectorUtils
-              .getStandardObjectInspector(parameters[0]);
-          return (StandardListObjectInspector) ObjectInspectorFactory
-              .getStandardListObjectInspector(inputOI);
-        } else {
-          internalMergeOI = (StandardListObjectInspector) parameters[0];
-          inputOI = internalMergeOI.getListElementObjectInspector();
-          loi = (StandardListObjectInspector) ObjectInspectorUtils.getStandardObjectInspector(internalMergeOI);
-          return loi;
-        }
+        internalMergeOI = (ListObjectInspector) parameters[0];
+        inputOI = internalMergeOI.getListElementObjectInspector();
+        loi = (StandardListObjectInspector) ObjectInspectorUtils.getStandardObjectInspector(internalMergeOI);
+        return loi;
       }
     }
 
@@ -134,9 +250,14 @@ public class UDAFCollect extends AbstractGenericUDAFResolver {
         throws HiveException {
       Object p = parameters[0];
 
+      metrics.rowIn();
       if (p != null) {
+        long start = metrics.start();
         ArrayAggBuffer myagg = (ArrayAggBuffer) agg;
         putIntoSet(p, myagg);
+        metrics.stop(start);
+      } else {
+        metrics.nullSkipped();
       }
     }
 
@@ -144,21 +265,30 @@ public class UDAFCollect extends AbstractGenericUDAFResolver {
     public void merge(AggregationBuffer agg, Object partial)
         throws HiveException {
       ArrayAggBuffer myagg = (ArrayAggBuffer) agg;
-      ArrayList<Object> partialResult = (ArrayList<Object>) internalMergeOI.getList(partial);
+      metrics.rowIn();
+      List<?> partialResult = internalMergeOI.getList(partial);
+      if (partialResult == null) {
+        return;
+      }
+      long start = metrics.start();
       for (Object i : partialResult) {
         putIntoSet(i, myagg);
       }
+      metrics.stop(start);
     }
 
     @Override
     public void reset(AggregationBuffer buff) throws HiveException {
       ArrayAggBuffer arrayBuff = (ArrayAggBuffer) buff;
       arrayBuff.collectArray = new ArrayList();
+      arrayBuff.bytes = 0;
     }
 
     @Override
     public Object terminate(AggregationBuffer agg) throws HiveException {
       ArrayAggBuffer myagg = (ArrayAggBuffer) agg;
+      metrics.rowsOut(1);
+      metrics.bufferSize(myagg.estimate());
       ArrayList<Object> ret = new ArrayList<Object>(myagg.collectArray.size());
       ret.addAll(myagg.collectArray);
       return ret;
@@ -168,15 +298,23 @@ public class UDAFCollect extends AbstractGenericUDAFResolver {
       Object pCopy = ObjectInspectorUtils.copyToStandardObject(p,
           this.inputOI);
       myagg.collectArray.add(pCopy);
+      myagg.bytes += estimate(pCopy);
     }
 
     @Override
     public Object terminatePartial(AggregationBuffer agg) throws HiveException {
       ArrayAggBuffer myagg = (ArrayAggBuffer) agg;
+      metrics.rowsOut(1);
+      metrics.bufferSize(myagg.estimate());
       ArrayList<Object> ret = new ArrayList<Object>(myagg.collectArray.size());
       ret.addAll(myagg.collectArray);
       return ret;
     }
+
+    @Override
+    public void close() throws IOException {
+      metrics.flush();
+    }
   }
 
   public static class MapCollectUDAFEvaluator extends GenericUDAFEvaluator {
@@ -189,11 +327,27 @@ public class UDAFCollect extends AbstractGenericUDAFResolver {
     // of objs)
     private StandardMapObjectInspector moi;
 
-    private StandardMapObjectInspector internalMergeOI;
+    // 经过 shuffle 后是 LazyBinaryMapObjectInspector，不一定是 StandardMapObjectInspector
+    private MapObjectInspector internalMergeOI;
 
+    private transient UDFMetrics metrics = UDFMetrics.DISABLED;
 
-    static class MapAggBuffer implements AggregationBuffer {
+    @Override
+    public void configure(MapredContext mapredContext) {
+      metrics = UDFMetrics.create(mapredContext, UDAFCollect.class);
+    }
+
+    @AggregationType(estimable = true)
+    static class MapAggBuffer extends AbstractAggregationBuffer {
       HashMap<Object, Object> collectMap = new HashMap<Object, Object>();
+
+      // 已收集的 key、value 的估算大小，插入时累加
+      int bytes;
+
+      @Override
+      public int estimate() {
+        return estimateMap(collectMap.size()) + bytes;
+      }
     }
 
     @Override
@@ -202,7 +356,8 @@ public class UDAFCollect extends AbstractGenericUDAFResolver {
       super.init(m, parameters);
       // init output object inspectors
       // The output of a partial aggregation is a list
-      if (m == Mode.PARTIAL1) {
+      // 与 ArrayCollectUDAFEvaluator 相同，按聚合模式区分原始数据和部分聚合结果
+      if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
         inputKeyOI = (PrimitiveObjectInspector) parameters[0];
         inputValOI = parameters[1];
 
@@ -210,20 +365,11 @@ public class UDAFCollect extends AbstractGenericUDAFResolver {
             ObjectInspectorUtils.getStandardObjectInspector(inputKeyOI),
             ObjectInspectorUtils.getStandardObjectInspector(inputValOI));
       } else {
-        if (!(parameters[0] instanceof StandardMapObjectInspector)) {
-          inputKeyOI = (PrimitiveObjectInspector) ObjectInspectorUtils
-              .getStandardObjectInspector(parameters[0]);
-          inputValOI = ObjectInspectorUtils
-              .getStandardObjectInspector(parameters[1]);
-          return (StandardMapObjectInspector) ObjectInspectorFactory
-              .getStandardMapObjectInspector(inputKeyOI, inputValOI);
-        } else {
-          internalMergeOI = (StandardMapObjectInspector) parameters[0];
-          inputKeyOI = (PrimitiveObjectInspector) internalMergeOI.getMapKeyObjectInspector();
-          inputValOI = internalMergeOI.getMapValueObjectInspector();
-          moi = (StandardMapObjectInspector) ObjectInspectorUtils.getStandardObjectInspector(internalMergeOI);
-          return moi;
-        }
+        internalMergeOI = (MapObjectInspector) parameters[0];
+        inputKeyOI = (PrimitiveObjectInspector) internalMergeOI.getMapKeyObjectInspector();
+        inputValOI = internalMergeOI.getMapValueObjectInspector();
+        moi = (StandardMapObjectInspector) ObjectInspectorUtils.getStandardObjectInspector(internalMergeOI);
+        return moi;
       }
     }
 
@@ -240,9 +386,14 @@ public class UDAFCollect extends AbstractGenericUDAFResolver {
       Object k = parameters[0];
       Object v = parameters[1];
 
+      metrics.rowIn();
       if (k != null) {
+        long start = metrics.start();
         MapAggBuffer myagg = (MapAggBuffer) agg;
         putIntoSet(k, v, myagg);
+        metrics.stop(start);
+      } else {
+        metrics.nullSkipped();
       }
     }
 
@@ -250,21 +401,30 @@ public class UDAFCollect extends AbstractGenericUDAFResolver {
     public void merge(AggregationBuffer agg, Object partial)
         throws HiveException {
       MapAggBuffer myagg = (MapAggBuffer) agg;
-      HashMap<Object, Object> partialResult = (HashMap<Object, Object>) internalMergeOI.getMap(partial);
-      for (Object i : partialResult.keySet()) {
-        putIntoSet(i, partialResult.get(i), myagg);
+      metrics.rowIn();
+      Map<?, ?> partialResult = internalMergeOI.getMap(partial);
+      if (partialResult == null) {
+        return;
+      }
+      long start = metrics.start();
+      for (Map.Entry<?, ?> entry : partialResult.entrySet()) {
+        putIntoSet(entry.getKey(), entry.getValue(), myagg);
       }
+      metrics.stop(start);
     }
 
     @Override
     public void reset(AggregationBuffer buff) throws HiveException {
       MapAggBuffer arrayBuff = (MapAggBuffer) buff;
       arrayBuff.collectMap = new HashMap<Object, Object>();
+      arrayBuff.bytes = 0;
     }
 
     @Override
     public Object terminate(AggregationBuffer agg) throws HiveException {
       MapAggBuffer myagg = (MapAggBuffer) agg;
+      metrics.rowsOut(1);
+      metrics.bufferSize(myagg.estimate());
       HashMap<Object, Object> ret = new HashMap<Object, Object>(myagg.collectMap);
       return ret;
     }
@@ -273,14 +433,577 @@ public class UDAFCollect extends AbstractGenericUDAFResolver {
       Object keyCopy = ObjectInspectorUtils.copyToStandardObject(key, this.inputKeyOI);
       Object valCopy = ObjectInspectorUtils.copyToStandardObject(val, this.inputValOI);
 
-      myagg.collectMap.put(keyCopy, valCopy);
+      int size = myagg.collectMap.size();
+      Object previous = myagg.collectMap.put(keyCopy, valCopy);
+      myagg.bytes += estimate(valCopy) - estimate(previous);
+      if (myagg.collectMap.size() > size) {
+        myagg.bytes += estimate(keyCopy);
+      }
     }
 
     @Override
     public Object terminatePartial(AggregationBuffer agg) throws HiveException {
       MapAggBuffer myagg = (MapAggBuffer) agg;
+      metrics.rowsOut(1);
+      metrics.bufferSize(myagg.estimate());
       HashMap<Object, Object> ret = new HashMap<Object, Object>(myagg.collectMap);
       return ret;
     }
+
+    @Override
+    public void close() throws IOException {
+      metrics.flush();
+    }
+  }
+
+  /**
+   * 估算 Buffer 中一个标准对象（Writable 以及由它们组成的 list、map、struct）占用的内存，
+   * 各 Buffer 在插入时累加，estimate() 不需要遍历
+   */
+  static int estimate(Object o) {
+    if (o == null) {
+      return 0;
+    }
+    JavaDataModel model = JavaDataModel.get();
+    if (o instanceof Text) {
+      return model.object() + model.ref() + model.primitive1()
+          + (int) model.lengthForByteArrayOfSize(((Text) o).getBytes().length);
+    }
+    if (o instanceof BytesWritable) {
+      return model.object() + model.ref() + model.primitive1() * 2
+          + (int) model.lengthForByteArrayOfSize(((BytesWritable) o).getCapacity());
+    }
+    if (o instanceof HiveDecimal || o instanceof HiveDecimalWritable) {
+      return (int) model.lengthOfDecimal();
+    }
+    if (o instanceof List) {
+      int size = estimateList(((List<?>) o).size());
+      for (Object e : (List<?>) o) {
+        size += estimate(e);
+      }
+      return size;
+    }
+    if (o instanceof Map) {
+      int size = estimateMap(((Map<?, ?>) o).size());
+      for (Map.Entry<?, ?> e : ((Map<?, ?>) o).entrySet()) {
+        size += estimate(e.getKey()) + estimate(e.getValue());
+      }
+      return size;
+    }
+    if (o instanceof Object[]) {
+      int size = (int) model.lengthForObjectArrayOfSize(((Object[]) o).length);
+      for (Object e : (Object[]) o) {
+        size += estimate(e);
+      }
+      return size;
+    }
+    // 其他定长的 Writable
+    return model.object() + model.primitive2();
+  }
+
+  /**
+   * ArrayList 本身的大小，不含元素
+   */
+  static int estimateList(int size) {
+    JavaDataModel model = JavaDataModel.get();
+    return model.object() + model.primitive1() * 2 + model.ref() + (int) model.lengthForObjectArrayOfSize(size);
+  }
+
+  /**
+   * HashMap 本身的大小，包括每个 entry 和桶数组，不含 key、value
+   */
+  static int estimateMap(int size) {
+    JavaDataModel model = JavaDataModel.get();
+    int entry = model.object() + model.ref() * 3 + model.primitive1();
+    return model.object() + model.primitive1() * 4 + model.ref() * 4
+        + (int) model.lengthForObjectArrayOfSize(size * 4 / 3 + 1) + size * entry;
+  }
+
+  /**
+   * 合并同一个 key 的多个 value 的方式，即 my_collect(k, v, 'sum') 的第三个参数
+   */
+  enum Combine {
+    SUM, COUNT, MIN, MAX, LAST;
+
+    /**
+     * 读取第三个参数，必须是常量
+     */
+    static Combine read(ObjectInspector oi) throws UDFArgumentTypeException {
+      if (!ObjectInspectorUtils.isConstantObjectInspector(oi)) {
+        throw new UDFArgumentTypeException(2, "The combine function must be a constant string.");
+      }
+      Object constant = ((ConstantObjectInspector) oi).getWritableConstantValue();
+      return of(constant == null ? null : constant.toString());
+    }
+
+    static Combine of(String name) throws UDFArgumentTypeException {
+      if (name != null) {
+        for (Combine combine : values()) {
+          if (combine.name().equalsIgnoreCase(name.trim())) {
+            return combine;
+          }
+        }
+      }
+      throw new UDFArgumentTypeException(2,
+          "The combine function must be one of sum, count, min, max and last but " + name + " is passed.");
+    }
+  }
+
+
+  /**
+   * 按 combine 合并重复 key 的 map collect
+   *
+   * iterate() 和 merge() 都按同一种方式合并，结果与部分聚合结果的到达顺序无关：
+   * 整数保存为 long、float 和 double 保存为 double、decimal 保存为 HiveDecimal，其他类型（只有 min、max）保存为对象。
+   * sum 的结果类型与 Hive 的 sum 一致：整数为 bigint、浮点数为 double、decimal(p, s) 为 decimal(p + 10, s)，
+   * decimal 溢出时为 NULL；min、max 的结果类型与 value 相同；count 统计非 NULL 的 value 个数；
+   * last 保留 order 最大的 value，order 相同时保留较大的 value，order 为 NULL 的行被忽略。
+   * 没有非 NULL value 的 key 对应的结果为 NULL（count 为 0）。
+   *
+   * 与 UDAFTopK 的 k 一样，combine 在 PARTIAL1 和 COMPLETE 中从常量参数读取并写入部分聚合结果：
+   * struct&lt;combine:int, values:map&lt;key, value&gt;&gt;，last 的 value 为 struct&lt;value, order&gt;。
+   * PARTIAL2 和 FINAL 的输出类型只取决于部分聚合结果的类型，combine 在 merge() 中读取。
+   */
+  public static class MapCombineUDAFEvaluator extends GenericUDAFEvaluator {
+
+    private enum Kind {
+      LONG, DOUBLE, DECIMAL, OBJECT
+    }
+
+    // PARTIAL1 和 COMPLETE 在 init() 中从常量参数读取；PARTIAL2 和 FINAL 在 merge() 中从部分聚合结果读取
+    private transient Combine combine;
+
+    // 是否为 last，PARTIAL2 和 FINAL 根据部分聚合结果的 value 是否为 struct 判断
+    private transient boolean last;
+
+    // For PARTIAL1 and COMPLETE: ObjectInspectors for original data
+    // For PARTIAL2 and FINAL: ObjectInspectors for the key, value and order inside partial aggregations
+    private transient PrimitiveObjectInspector inputKeyOI;
+
+    private transient ObjectInspector inputValOI;
+
+    private transient ObjectInspector inputOrderOI;
+
+    // For PARTIAL2 and FINAL: ObjectInspectors for partial aggregations
+    private transient StructObjectInspector partialOI;
+
+    private transient StructField combineField;
+
+    private transient StructField valuesField;
+
+    private transient MapObjectInspector internalMergeOI;
+
+    private transient StructObjectInspector lastOI;
+
+    private transient StructField valueField;
+
+    private transient StructField orderField;
+
+    private transient Kind kind;
+
+    // Buffer 中保存的 key、order 的标准 ObjectInspector；valueOI 为输出的 value 类型
+    private transient ObjectInspector keyOI;
+
+    private transient ObjectInspector valueOI;
+
+    private transient ObjectInspector orderOI;
+
+    // valueOI 为基本类型时的类型，输出时把 long / double 还原为该类型
+    private transient PrimitiveCategory valueCategory;
+
+    // valueOI 为 decimal 时的精度，sum 超出精度时结果为 NULL
+    private transient int precision;
+
+    private transient int scale;
+
+    private transient boolean valueComparable;
+
+    private transient UDFMetrics metrics = UDFMetrics.DISABLED;
+
+    @Override
+    public void configure(MapredContext mapredContext) {
+      metrics = UDFMetrics.create(mapredContext, UDAFCollect.class);
+    }
+
+    // Slot 对象本身的大小：对象头、boolean、long、double 和两个引用
+    private static final int SLOT_BYTES;
+
+    static {
+      JavaDataModel model = JavaDataModel.get();
+      SLOT_BYTES = model.object() + model.primitive1() + model.primitive2() * 2 + model.ref() * 2;
+    }
+
+    /**
+     * 一个 key 的合并结果，数值直接保存在 long / double 字段中，不为每一行创建 Writable
+     */
+    static class Slot {
+      // 是否已经有非 NULL 的 value
+      boolean set;
+
+      long longValue;
+
+      double doubleValue;
+
+      // decimal 为 HiveDecimal（sum 溢出后为 NULL），其他类型为标准 Writable 对象
+      Object value;
+
+      Object order;
+    }
+
+    @AggregationType(estimable = true)
+    static class MapCombineBuffer extends AbstractAggregationBuffer {
+      HashMap<Object, Slot> combineMap = new HashMap<Object, Slot>();
+
+      // key、Slot 以及 Slot 中对象的估算大小，插入和替换时累加
+      int bytes;
+
+      @Override
+      public int estimate() {
+        return estimateMap(combineMap.size()) + bytes;
+      }
+    }
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters)
+        throws HiveException {
+      super.init(m, parameters);
+      if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+        combine = Combine.read(parameters[2]);
+        last = combine == Combine.LAST;
+        inputKeyOI = (PrimitiveObjectInspector) parameters[0];
+        inputValOI = parameters[1];
+        inputOrderOI = last ? parameters[3] : null;
+        valueOI = outputValueOI(combine, inputValOI);
+      } else {
+        combine = null;
+        partialOI = (StructObjectInspector) parameters[0];
+        combineField = partialOI.getStructFieldRef("combine");
+        valuesField = partialOI.getStructFieldRef("values");
+        internalMergeOI = (MapObjectInspector) valuesField.getFieldObjectInspector();
+        inputKeyOI = (PrimitiveObjectInspector) internalMergeOI.getMapKeyObjectInspector();
+        inputValOI = internalMergeOI.getMapValueObjectInspector();
+        last = inputValOI.getCategory() == ObjectInspector.Category.STRUCT;
+        if (last) {
+          lastOI = (StructObjectInspector) inputValOI;
+          valueField = lastOI.getStructFieldRef("value");
+          orderField = lastOI.getStructFieldRef("order");
+          inputValOI = valueField.getFieldObjectInspector();
+          inputOrderOI = orderField.getFieldObjectInspector();
+        }
+        // 部分聚合结果中的 value 已经是输出类型
+        valueOI = ObjectInspectorUtils.getStandardObjectInspector(inputValOI, ObjectInspectorCopyOption.WRITABLE);
+      }
+
+      keyOI = ObjectInspectorUtils.getStandardObjectInspector(inputKeyOI, ObjectInspectorCopyOption.WRITABLE);
+      valueCategory = valueOI.getCategory() == ObjectInspector.Category.PRIMITIVE
+          ? ((PrimitiveObjectInspector) valueOI).getPrimitiveCategory() : null;
+      kind = last ? Kind.OBJECT : kindOf(valueCategory);
+      if (valueCategory == PrimitiveCategory.DECIMAL) {
+        DecimalTypeInfo decimal = (DecimalTypeInfo) ((PrimitiveObjectInspector) valueOI).getTypeInfo();
+        precision = decimal.precision();
+        scale = decimal.scale();
+      }
+      valueComparable = ObjectInspectorUtils.compareSupported(valueOI);
+
+      ObjectInspector partialValueOI = valueOI;
+      if (last) {
+        orderOI = ObjectInspectorUtils.getStandardObjectInspector(inputOrderOI, ObjectInspectorCopyOption.WRITABLE);
+        partialValueOI = ObjectInspectorFactory.getStandardStructObjectInspector(
+            Arrays.asList("value", "order"), Arrays.asList(valueOI, orderOI));
+      }
+      if (m == Mode.PARTIAL1 || m == Mode.PARTIAL2) {
+        return ObjectInspectorFactory.getStandardStructObjectInspector(
+            Arrays.asList("combine", "values"),
+            Arrays.<ObjectInspector>asList(
+                PrimitiveObjectInspectorFactory.writableIntObjectInspector,
+                ObjectInspectorFactory.getStandardMapObjectInspector(keyOI, partialValueOI)));
+      }
+      return ObjectInspectorFactory.getStandardMapObjectInspector(keyOI, valueOI);
+    }
+
+    /**
+     * 原始数据的 value 合并后的类型，sum 与 Hive 的 sum 一致，count 为 bigint，其他与 value 相同
+     */
+    private static ObjectInspector outputValueOI(Combine combine, ObjectInspector oi) {
+      if (combine == Combine.COUNT) {
+        return PrimitiveObjectInspectorFactory.writableLongObjectInspector;
+      }
+      if (combine == Combine.SUM) {
+        PrimitiveObjectInspector poi = (PrimitiveObjectInspector) oi;
+        switch (poi.getPrimitiveCategory()) {
+          case FLOAT:
+          case DOUBLE:
+            return PrimitiveObjectInspectorFactory.writableDoubleObjectInspector;
+          case DECIMAL: {
+            DecimalTypeInfo decimal = (DecimalTypeInfo) poi.getTypeInfo();
+            return PrimitiveObjectInspectorFactory.getPrimitiveWritableObjectInspector(
+                TypeInfoFactory.getDecimalTypeInfo(
+                    Math.min(HiveDecimal.MAX_PRECISION, decimal.precision() + 10), decimal.scale()));
+          }
+          default:
+            return PrimitiveObjectInspectorFactory.writableLongObjectInspector;
+        }
+      }
+      return ObjectInspectorUtils.getStandardObjectInspector(oi, ObjectInspectorCopyOption.WRITABLE);
+    }
+
+    private static Kind kindOf(PrimitiveCategory category) {
+      if (category == null) {
+        return Kind.OBJECT;
+      }
+      switch (category) {
+        case BYTE:
+        case SHORT:
+        case INT:
+        case LONG:
+          return Kind.LONG;
+        case FLOAT:
+        case DOUBLE:
+          return Kind.DOUBLE;
+        case DECIMAL:
+          return Kind.DECIMAL;
+        default:
+          return Kind.OBJECT;
+      }
+    }
+
+    @Override
+    public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+      AggregationBuffer buff = new MapCombineBuffer();
+      reset(buff);
+      return buff;
+    }
+
+    @Override
+    public void reset(AggregationBuffer buff) throws HiveException {
+      ((MapCombineBuffer) buff).combineMap = new HashMap<Object, Slot>();
+      ((MapCombineBuffer) buff).bytes = 0;
+    }
+
+    @Override
+    public void iterate(AggregationBuffer agg, Object[] parameters)
+        throws HiveException {
+      Object k = parameters[0];
+
+      metrics.rowIn();
+      if (k == null) {
+        metrics.nullSkipped();
+        return;
+      }
+      long start = metrics.start();
+      Slot slot = slot((MapCombineBuffer) agg, k);
+      if (last) {
+        last((MapCombineBuffer) agg, slot, parameters[1], parameters[3]);
+      } else if (combine == Combine.COUNT) {
+        if (parameters[1] != null) {
+          slot.longValue++;
+        }
+      } else {
+        combine((MapCombineBuffer) agg, slot, parameters[1]);
+      }
+      metrics.stop(start);
+    }
+
+    @Override
+    public void merge(AggregationBuffer agg, Object partial)
+        throws HiveException {
+      MapCombineBuffer myagg = (MapCombineBuffer) agg;
+      metrics.rowIn();
+      if (partial == null) {
+        return;
+      }
+      Object tag = partialOI.getStructFieldData(partial, combineField);
+      Map<?, ?> partialResult = internalMergeOI.getMap(partialOI.getStructFieldData(partial, valuesField));
+      if (tag == null || partialResult == null) {
+        // 没有收到任何输入的 PARTIAL2 输出的空结果
+        return;
+      }
+      long start = metrics.start();
+      combine = Combine.values()[PrimitiveObjectInspectorUtils.getInt(
+          tag, (PrimitiveObjectInspector) combineField.getFieldObjectInspector())];
+      for (Map.Entry<?, ?> entry : partialResult.entrySet()) {
+        if (entry.getKey() == null) {
+          continue;
+        }
+        Slot slot = slot(myagg, entry.getKey());
+        Object value = entry.getValue();
+        if (last) {
+          if (value != null) {
+            last(myagg, slot, lastOI.getStructFieldData(value, valueField),
+                lastOI.getStructFieldData(value, orderField));
+          }
+        } else if (combine == Combine.COUNT) {
+          if (value != null) {
+            slot.longValue += PrimitiveObjectInspectorUtils.getLong(value, (PrimitiveObjectInspector) inputValOI);
+          }
+        } else {
+          combine(myagg, slot, value);
+        }
+      }
+      metrics.stop(start);
+    }
+
+    /**
+     * 取出 key 对应的 Slot。先用 key 的 Writable 查找，只有新的 key 才复制，重复的 key 不再分配对象
+     */
+    private Slot slot(MapCombineBuffer myagg, Object key) {
+      Slot slot = myagg.combineMap.get(inputKeyOI.getPrimitiveWritableObject(key));
+      if (slot == null) {
+        slot = new Slot();
+        Object keyCopy = ObjectInspectorUtils.copyToStandardObject(key, inputKeyOI, ObjectInspectorCopyOption.WRITABLE);
+        myagg.combineMap.put(keyCopy, slot);
+        myagg.bytes += estimate(keyCopy) + SLOT_BYTES;
+      }
+      return slot;
+    }
+
+    private void combine(MapCombineBuffer myagg, Slot slot, Object value) {
+      if (value == null) {
+        return;
+      }
+      switch (kind) {
+        case LONG: {
+          long v = PrimitiveObjectInspectorUtils.getLong(value, (PrimitiveObjectInspector) inputValOI);
+          if (!slot.set) {
+            slot.longValue = v;
+          } else if (combine == Combine.SUM) {
+            slot.longValue += v;
+          } else if (combine == Combine.MIN) {
+            slot.longValue = Math.min(slot.longValue, v);
+          } else {
+            slot.longValue = Math.max(slot.longValue, v);
+          }
+          break;
+        }
+        case DOUBLE: {
+          double v = PrimitiveObjectInspectorUtils.getDouble(value, (PrimitiveObjectInspector) inputValOI);
+          if (!slot.set) {
+            slot.doubleValue = v;
+          } else if (combine == Combine.SUM) {
+            slot.doubleValue += v;
+          } else if (combine == Combine.MIN) {
+            slot.doubleValue = Math.min(slot.doubleValue, v);
+          } else {
+            slot.doubleValue = Math.max(slot.doubleValue, v);
+          }
+          break;
+        }
+        case DECIMAL: {
+          HiveDecimal v = PrimitiveObjectInspectorUtils.getHiveDecimal(value, (PrimitiveObjectInspector) inputValOI);
+          HiveDecimal current = (HiveDecimal) slot.value;
+          if (!slot.set) {
+            slot.value = v;
+            myagg.bytes += estimate(v);
+          } else if (combine == Combine.SUM) {
+            // 溢出后保持 NULL，与 Hive 的 sum 一致
+            HiveDecimal sum = current == null || v == null ? null : current.add(v);
+            slot.value = sum == null ? null : HiveDecimal.enforcePrecisionScale(sum, precision, scale);
+          } else if (v != null && (current == null
+              || (combine == Combine.MIN ? v.compareTo(current) < 0 : v.compareTo(current) > 0))) {
+            // 第一个值超出 decimal 类型的精度时读出为 NULL，current 也为 NULL
+            slot.value = v;
+          }
+          break;
+        }
+        default: {
+          // 只有 min、max 会按对象保存
+          int c = slot.set ? ObjectInspectorUtils.compare(value, inputValOI, slot.value, valueOI) : 0;
+          if (!slot.set || (combine == Combine.MIN ? c < 0 : c > 0)) {
+            Object copy = ObjectInspectorUtils.copyToStandardObject(value, inputValOI, ObjectInspectorCopyOption.WRITABLE);
+            myagg.bytes += estimate(copy) - estimate(slot.value);
+            slot.value = copy;
+          }
+          break;
+        }
+      }
+      slot.set = true;
+    }
+
+    private void last(MapCombineBuffer myagg, Slot slot, Object value, Object order) {
+      if (order == null) {
+        return;
+      }
+      int c = slot.set ? ObjectInspectorUtils.compare(order, inputOrderOI, slot.order, orderOI) : 1;
+      if (c == 0 && valueComparable) {
+        // order 相同时取较大的 value，使结果与部分聚合结果的到达顺序无关
+        c = ObjectInspectorUtils.compare(value, inputValOI, slot.value, valueOI);
+      }
+      if (c > 0) {
+        Object valueCopy = ObjectInspectorUtils.copyToStandardObject(value, inputValOI, ObjectInspectorCopyOption.WRITABLE);
+        Object orderCopy = ObjectInspectorUtils.copyToStandardObject(order, inputOrderOI, ObjectInspectorCopyOption.WRITABLE);
+        myagg.bytes += estimate(valueCopy) + estimate(orderCopy) - estimate(slot.value) - estimate(slot.order);
+        slot.value = valueCopy;
+        slot.order = orderCopy;
+        slot.set = true;
+      }
+    }
+
+    @Override
+    public Object terminate(AggregationBuffer agg) throws HiveException {
+      return output((MapCombineBuffer) agg, false);
+    }
+
+    @Override
+    public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+      return new Object[] {
+          combine == null ? null : new IntWritable(combine.ordinal()),
+          output((MapCombineBuffer) agg, true)
+      };
+    }
+
+    /**
+     * @param partial 为 true 时 last 的 value 输出为 struct&lt;value, order&gt;
+     */
+    private HashMap<Object, Object> output(MapCombineBuffer myagg, boolean partial) {
+      metrics.rowsOut(1);
+      metrics.bufferSize(myagg.estimate());
+      HashMap<Object, Object> ret = new HashMap<Object, Object>(myagg.combineMap.size() * 4 / 3 + 1);
+      for (Map.Entry<Object, Slot> entry : myagg.combineMap.entrySet()) {
+        Slot slot = entry.getValue();
+        Object value;
+        if (combine == Combine.COUNT) {
+          value = new LongWritable(slot.longValue);
+        } else if (!slot.set) {
+          value = null;
+        } else if (last) {
+          value = partial ? new Object[] {slot.value, slot.order} : slot.value;
+        } else {
+          value = writable(slot);
+        }
+        ret.put(entry.getKey(), value);
+      }
+      return ret;
+    }
+
+    /**
+     * 把 Slot 中的值还原为 valueOI 对应的 Writable
+     */
+    private Object writable(Slot slot) {
+      switch (kind) {
+        case LONG:
+          switch (valueCategory) {
+            case BYTE:
+              return new ByteWritable((byte) slot.longValue);
+            case SHORT:
+              return new ShortWritable((short) slot.longValue);
+            case INT:
+              return new IntWritable((int) slot.longValue);
+            default:
+              return new LongWritable(slot.longValue);
+          }
+        case DOUBLE:
+          return valueCategory == PrimitiveCategory.FLOAT
+              ? new FloatWritable((float) slot.doubleValue) : new DoubleWritable(slot.doubleValue);
+        case DECIMAL:
+          return slot.value == null ? null : new HiveDecimalWritable((HiveDecimal) slot.value);
+        default:
+          return slot.value;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      metrics.flush();
+    }
   }
-}
\ No newline at end of file
+}
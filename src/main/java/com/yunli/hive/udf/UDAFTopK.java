@@ -0,0 +1,522 @@
+package com.yunli.hive.udf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.util.JavaDataModel;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * 求每个分组中出现次数最多的前 k 个值（Space-Saving 算法）
+ *
+ * 每个分组只保留 k 个计数器，内存占用为 O(k)，与分组内不同值的个数无关。
+ * 返回按 count 降序排列的 struct 数组，error 为 count 可能多计的上界，
+ * 即真实次数落在 [count - error, count] 之间。
+ *
+ * 创建临时函数：
+ * add jar /tmp/hive-udfs-1.0-SNAPSHOT.jar;
+ * create temporary function my_top_k as 'com.yunli.hive.udf.UDAFTopK';
+ *
+ * 创建永久函数：
+ * hdfs dfs -put -f /tmp/hive-udfs-1.0-SNAPSHOT.jar /hive/libs
+ * CREATE FUNCTION my_top_k AS 'com.yunli.hive.udf.UDAFTopK' USING JAR 'hdfs:///hive/libs/hive-udfs-1.0-SNAPSHOT.jar';
+ *
+ * 测试：
+ * hive> SELECT default.my_top_k(age, 2) from staff;
+ * 结果：
+ * [{"value":18,"count":4,"error":0},{"value":30,"count":3,"error":0}]
+ */
+@Description(name = "top_k",
+    value = "_FUNC_(x[, k]) - Returns the k (default 10) most frequent values of x in the aggregation group "
+        + "as an array of struct<value,count,error>, sorted by count descending",
+    extended = "Example:\n  > SELECT _FUNC_(field1, 5) FROM src;\n "
+)
+public class UDAFTopK extends AbstractGenericUDAFResolver {
+
+  /**
+   * 未指定 k 时默认保留的计数器个数
+   */
+  static final int DEFAULT_K = 10;
+
+  @Override
+  public GenericUDAFEvaluator getEvaluator(TypeInfo[] parameters) throws SemanticException {
+    if (parameters.length != 1 && parameters.length != 2) {
+      throw new UDFArgumentTypeException(parameters.length - 1,
+          "One or two arguments are expected: the value and an optional constant k.");
+    }
+    if (parameters[0].getCategory() != ObjectInspector.Category.PRIMITIVE) {
+      throw new UDFArgumentTypeException(0,
+          "Only primitive type arguments are accepted but " + parameters[0].getTypeName() + " is passed.");
+    }
+    if (parameters.length == 2 && parameters[1].getCategory() != ObjectInspector.Category.PRIMITIVE) {
+      throw new UDFArgumentTypeException(1,
+          "k must be an integer constant but " + parameters[1].getTypeName() + " is passed.");
+    }
+    return new TopKEvaluator();
+  }
+
+  public static class TopKEvaluator extends GenericUDAFEvaluator {
+    // For PARTIAL1 and COMPLETE: ObjectInspectors for original data
+    private transient PrimitiveObjectInspector inputOI;
+
+    private transient int k;
+
+    // For PARTIAL2 and FINAL: ObjectInspectors for partial aggregations
+    // struct<k:int, values:array<T>, counts:array<bigint>, errors:array<bigint>>
+    private transient StructObjectInspector partialOI;
+
+    private transient StructField kField;
+
+    private transient StructField valuesField;
+
+    private transient StructField countsField;
+
+    private transient StructField errorsField;
+
+    // 部分聚合结果中 value 的类型，即经过 WRITABLE 标准化之后的原始数据类型
+    private transient ObjectInspector valueOI;
+
+    private transient UDFMetrics metrics = UDFMetrics.DISABLED;
+
+    @Override
+    public void configure(MapredContext mapredContext) {
+      metrics = UDFMetrics.create(mapredContext, UDAFTopK.class);
+    }
+
+    @AggregationType(estimable = true)
+    static class TopKBuffer extends AbstractAggregationBuffer {
+      // FINAL 阶段在收到第一个部分聚合结果之前并不知道 k，所以延迟创建
+      SpaceSaving summary;
+
+      @Override
+      public int estimate() {
+        JavaDataModel model = JavaDataModel.get();
+        return model.object() + model.ref() + (summary == null ? 0 : summary.estimate());
+      }
+    }
+
+    @Override
+    public ObjectInspector init(Mode m, ObjectInspector[] parameters) throws HiveException {
+      super.init(m, parameters);
+      if (m == Mode.PARTIAL1 || m == Mode.COMPLETE) {
+        inputOI = (PrimitiveObjectInspector) parameters[0];
+        k = parameters.length == 2 ? readK(parameters[1]) : DEFAULT_K;
+        valueOI = ObjectInspectorUtils.getStandardObjectInspector(inputOI, ObjectInspectorCopyOption.WRITABLE);
+      } else {
+        partialOI = (StructObjectInspector) parameters[0];
+        kField = partialOI.getStructFieldRef("k");
+        valuesField = partialOI.getStructFieldRef("values");
+        countsField = partialOI.getStructFieldRef("counts");
+        errorsField = partialOI.getStructFieldRef("errors");
+        ObjectInspector valuesElementOI =
+            ((ListObjectInspector) valuesField.getFieldObjectInspector()).getListElementObjectInspector();
+        valueOI = ObjectInspectorUtils.getStandardObjectInspector(valuesElementOI, ObjectInspectorCopyOption.WRITABLE);
+      }
+
+      if (m == Mode.PARTIAL1 || m == Mode.PARTIAL2) {
+        return ObjectInspectorFactory.getStandardStructObjectInspector(
+            Arrays.asList("k", "values", "counts", "errors"),
+            Arrays.<ObjectInspector>asList(
+                PrimitiveObjectInspectorFactory.writableIntObjectInspector,
+                ObjectInspectorFactory.getStandardListObjectInspector(valueOI),
+                ObjectInspectorFactory.getStandardListObjectInspector(
+                    PrimitiveObjectInspectorFactory.writableLongObjectInspector),
+                ObjectInspectorFactory.getStandardListObjectInspector(
+                    PrimitiveObjectInspectorFactory.writableLongObjectInspector)));
+      } else {
+        return ObjectInspectorFactory.getStandardListObjectInspector(
+            ObjectInspectorFactory.getStandardStructObjectInspector(
+                Arrays.asList("value", "count", "error"),
+                Arrays.<ObjectInspector>asList(
+                    valueOI,
+                    PrimitiveObjectInspectorFactory.writableLongObjectInspector,
+                    PrimitiveObjectInspectorFactory.writableLongObjectInspector)));
+      }
+    }
+
+    private static int readK(ObjectInspector oi) throws UDFArgumentException {
+      if (!ObjectInspectorUtils.isConstantObjectInspector(oi)) {
+        throw new UDFArgumentTypeException(1, "k must be a constant.");
+      }
+      Object constant = ((ConstantObjectInspector) oi).getWritableConstantValue();
+      if (constant == null) {
+        throw new UDFArgumentTypeException(1, "k must not be NULL.");
+      }
+      int k = PrimitiveObjectInspectorUtils.getInt(constant, (PrimitiveObjectInspector) oi);
+      if (k <= 0) {
+        throw new UDFArgumentTypeException(1, "k must be a positive integer but " + k + " is passed.");
+      }
+      return k;
+    }
+
+    @Override
+    public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+      return new TopKBuffer();
+    }
+
+    @Override
+    public void reset(AggregationBuffer agg) throws HiveException {
+      ((TopKBuffer) agg).summary = null;
+    }
+
+    @Override
+    public void iterate(AggregationBuffer agg, Object[] parameters) throws HiveException {
+      Object p = parameters[0];
+      metrics.rowIn();
+      if (p == null) {
+        metrics.nullSkipped();
+        return;
+      }
+      long start = metrics.start();
+      TopKBuffer myagg = (TopKBuffer) agg;
+      if (myagg.summary == null) {
+        myagg.summary = new SpaceSaving(k);
+      }
+      // 先用 Writable 查找，只有新的值才复制，已跟踪的值不再分配对象
+      if (!myagg.summary.increment(inputOI.getPrimitiveWritableObject(p))) {
+        myagg.summary.insert(ObjectInspectorUtils.copyToStandardObject(p, inputOI, ObjectInspectorCopyOption.WRITABLE));
+      }
+      metrics.stop(start);
+    }
+
+    @Override
+    public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+      SpaceSaving summary = ((TopKBuffer) agg).summary;
+      if (summary == null && partialOI != null) {
+        // PARTIAL2 且没有收到任何部分聚合结果，此时不知道 k，由 merge 忽略
+        return null;
+      }
+      int size = summary == null ? 0 : summary.size();
+      metrics.rowsOut(1);
+      metrics.bufferSize(((TopKBuffer) agg).estimate());
+      ArrayList<Object> values = new ArrayList<Object>(size);
+      ArrayList<LongWritable> counts = new ArrayList<LongWritable>(size);
+      ArrayList<LongWritable> errors = new ArrayList<LongWritable>(size);
+      for (int i = 0; i < size; i++) {
+        SpaceSaving.Counter c = summary.get(i);
+        values.add(c.item);
+        counts.add(new LongWritable(c.count));
+        errors.add(new LongWritable(c.error));
+      }
+      return new Object[] {
+          // PARTIAL1 的空分组也输出 k，保证 FINAL 创建的 SpaceSaving 大小正确
+          new IntWritable(summary == null ? k : summary.capacity()),
+          values,
+          counts,
+          errors
+      };
+    }
+
+    @Override
+    public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+      metrics.rowIn();
+      if (partial == null) {
+        return;
+      }
+      long start = metrics.start();
+      // 不强转为 LazyBinaryStruct，统一通过 ObjectInspector 读取，兼容各种执行计划
+      int partialK = PrimitiveObjectInspectorUtils.getInt(
+          partialOI.getStructFieldData(partial, kField), (PrimitiveObjectInspector) kField.getFieldObjectInspector());
+      ListObjectInspector valuesOI = (ListObjectInspector) valuesField.getFieldObjectInspector();
+      ListObjectInspector countsOI = (ListObjectInspector) countsField.getFieldObjectInspector();
+      ListObjectInspector errorsOI = (ListObjectInspector) errorsField.getFieldObjectInspector();
+      ObjectInspector valuesElementOI = valuesOI.getListElementObjectInspector();
+      PrimitiveObjectInspector countsElementOI = (PrimitiveObjectInspector) countsOI.getListElementObjectInspector();
+      PrimitiveObjectInspector errorsElementOI = (PrimitiveObjectInspector) errorsOI.getListElementObjectInspector();
+
+      Object values = partialOI.getStructFieldData(partial, valuesField);
+      Object counts = partialOI.getStructFieldData(partial, countsField);
+      Object errors = partialOI.getStructFieldData(partial, errorsField);
+      int n = valuesOI.getListLength(values);
+      Object[] items = new Object[n];
+      long[] itemCounts = new long[n];
+      long[] itemErrors = new long[n];
+      for (int i = 0; i < n; i++) {
+        items[i] = ObjectInspectorUtils.copyToStandardObject(
+            valuesOI.getListElement(values, i), valuesElementOI, ObjectInspectorCopyOption.WRITABLE);
+        itemCounts[i] = PrimitiveObjectInspectorUtils.getLong(countsOI.getListElement(counts, i), countsElementOI);
+        itemErrors[i] = PrimitiveObjectInspectorUtils.getLong(errorsOI.getListElement(errors, i), errorsElementOI);
+      }
+
+      TopKBuffer myagg = (TopKBuffer) agg;
+      if (myagg.summary == null) {
+        myagg.summary = new SpaceSaving(partialK);
+      }
+      myagg.summary.merge(items, itemCounts, itemErrors, partialK);
+      metrics.stop(start);
+    }
+
+    @Override
+    public Object terminate(AggregationBuffer agg) throws HiveException {
+      SpaceSaving summary = ((TopKBuffer) agg).summary;
+      metrics.rowsOut(1);
+      if (summary == null) {
+        return new ArrayList<Object>(0);
+      }
+      metrics.bufferSize(((TopKBuffer) agg).estimate());
+      List<SpaceSaving.Counter> sorted = summary.sortedCounters();
+      ArrayList<Object> ret = new ArrayList<Object>(sorted.size());
+      for (SpaceSaving.Counter c : sorted) {
+        ret.add(new Object[] {c.item, new LongWritable(c.count), new LongWritable(c.error)});
+      }
+      return ret;
+    }
+
+    @Override
+    public void close() throws IOException {
+      metrics.flush();
+    }
+  }
+
+  /**
+   * Space-Saving 计数器集合（Metwally et al.）
+   *
+   * 最多保留 capacity 个计数器，计数器按 count 组织成最小堆：
+   * 已存在的值直接累加；计数器已满时替换 count 最小的计数器，
+   * 新值继承其 count 作为 error。每次更新为 O(log k)。
+   *
+   * 合并采用 mergeable summaries 的做法：一侧缺失的值按对侧的最小 count 补齐，
+   * 再保留 count 最大的 capacity 个，误差上界仍为 N / k。
+   */
+  static class SpaceSaving {
+
+    static class Counter {
+      Object item;
+
+      long count;
+
+      long error;
+
+      // 在堆数组中的下标
+      int pos;
+
+      Counter(Object item, long count, long error) {
+        this.item = item;
+        this.count = count;
+        this.error = error;
+      }
+    }
+
+    private static final Comparator<Counter> BY_COUNT_DESC = new Comparator<Counter>() {
+      @Override
+      public int compare(Counter a, Counter b) {
+        if (a.count != b.count) {
+          return a.count > b.count ? -1 : 1;
+        }
+        return a.error < b.error ? -1 : (a.error == b.error ? 0 : 1);
+      }
+    };
+
+    private final int capacity;
+
+    private final HashMap<Object, Counter> index;
+
+    private Counter[] heap;
+
+    private int size;
+
+    // 已跟踪的值的估算大小，插入、替换时增量维护，合并时重新计算
+    private int itemBytes;
+
+    SpaceSaving(int capacity) {
+      this.capacity = capacity;
+      this.index = new HashMap<Object, Counter>();
+      this.heap = new Counter[Math.min(capacity, 16)];
+    }
+
+    int capacity() {
+      return capacity;
+    }
+
+    int size() {
+      return size;
+    }
+
+    Counter get(int i) {
+      return heap[i];
+    }
+
+    /**
+     * 估算占用的内存：HashMap 索引、堆数组、每个 Counter 以及跟踪的值
+     */
+    int estimate() {
+      JavaDataModel model = JavaDataModel.get();
+      int counter = model.object() + model.ref() + model.primitive2() * 2 + model.primitive1();
+      return model.object() + model.primitive1() * 3 + model.ref() * 2
+          + UDAFCollect.estimateMap(size) + (int) model.lengthForObjectArrayOfSize(heap.length)
+          + size * counter + itemBytes;
+    }
+
+    /**
+     * 计数器未满时为 0，否则为当前最小的 count，即未被跟踪的值可能出现的最大次数
+     */
+    long minCount() {
+      return size < capacity ? 0 : heap[0].count;
+    }
+
+    /**
+     * 已跟踪的值计数加一并返回 true，否则返回 false；item 只用于查找，不会被保存
+     */
+    boolean increment(Object item) {
+      Counter c = index.get(item);
+      if (c == null) {
+        return false;
+      }
+      c.count++;
+      siftDown(c.pos);
+      return true;
+    }
+
+    /**
+     * 加入一个未被跟踪的值，item 会被保存，调用方需要传入副本
+     */
+    void insert(Object item) {
+      if (size < capacity) {
+        add(new Counter(item, 1, 0));
+      } else {
+        Counter min = heap[0];
+        index.remove(min.item);
+        itemBytes += UDAFCollect.estimate(item) - UDAFCollect.estimate(min.item);
+        min.item = item;
+        min.error = min.count;
+        min.count++;
+        index.put(item, min);
+        siftDown(0);
+      }
+    }
+
+    void merge(Object[] items, long[] counts, long[] errors, int otherCapacity) {
+      long minSelf = minCount();
+      long minOther = items.length < otherCapacity ? 0 : min(counts);
+
+      // 先假设自己的每个值在对侧都未被跟踪，对侧确实跟踪的值再修正回来
+      for (int i = 0; i < size; i++) {
+        heap[i].count += minOther;
+        heap[i].error += minOther;
+      }
+      ArrayList<Counter> all = new ArrayList<Counter>(size + items.length);
+      for (int i = 0; i < size; i++) {
+        all.add(heap[i]);
+      }
+      for (int i = 0; i < items.length; i++) {
+        Counter c = index.get(items[i]);
+        if (c != null) {
+          c.count += counts[i] - minOther;
+          c.error += errors[i] - minOther;
+        } else {
+          all.add(new Counter(items[i], counts[i] + minSelf, errors[i] + minSelf));
+        }
+      }
+
+      Collections.sort(all, BY_COUNT_DESC);
+      int n = Math.min(capacity, all.size());
+      if (heap.length < n) {
+        heap = new Counter[n];
+      }
+      index.clear();
+      itemBytes = 0;
+      // 升序排列的数组本身就是合法的最小堆
+      for (int i = 0; i < n; i++) {
+        Counter c = all.get(n - 1 - i);
+        c.pos = i;
+        heap[i] = c;
+        index.put(c.item, c);
+        itemBytes += UDAFCollect.estimate(c.item);
+      }
+      for (int i = n; i < size; i++) {
+        heap[i] = null;
+      }
+      size = n;
+    }
+
+    List<Counter> sortedCounters() {
+      ArrayList<Counter> ret = new ArrayList<Counter>(size);
+      for (int i = 0; i < size; i++) {
+        ret.add(heap[i]);
+      }
+      Collections.sort(ret, BY_COUNT_DESC);
+      return ret;
+    }
+
+    private static long min(long[] values) {
+      long min = Long.MAX_VALUE;
+      for (long v : values) {
+        min = Math.min(min, v);
+      }
+      return values.length == 0 ? 0 : min;
+    }
+
+    private void add(Counter c) {
+      if (size == heap.length) {
+        heap = Arrays.copyOf(heap, Math.min(capacity, size * 2));
+      }
+      c.pos = size;
+      heap[size++] = c;
+      index.put(c.item, c);
+      itemBytes += UDAFCollect.estimate(c.item);
+      siftUp(c.pos);
+    }
+
+    private void siftUp(int i) {
+      Counter c = heap[i];
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (heap[parent].count <= c.count) {
+          break;
+        }
+        place(heap[parent], i);
+        i = parent;
+      }
+      place(c, i);
+    }
+
+    private void siftDown(int i) {
+      Counter c = heap[i];
+      int half = size >>> 1;
+      while (i < half) {
+        int child = 2 * i + 1;
+        int right = child + 1;
+        if (right < size && heap[right].count < heap[child].count) {
+          child = right;
+        }
+        if (c.count <= heap[child].count) {
+          break;
+        }
+        place(heap[child], i);
+        i = child;
+      }
+      place(c, i);
+    }
+
+    private void place(Counter c, int i) {
+      heap[i] = c;
+      c.pos = i;
+    }
+  }
+}
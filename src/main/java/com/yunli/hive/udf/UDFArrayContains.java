@@ -1,6 +1,9 @@
 package com.yunli.hive.udf;
 
+import java.io.IOException;
+
 import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.MapredContext;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
@@ -37,7 +40,15 @@ public class UDFArrayContains extends GenericUDF {
 
   private transient ObjectInspector arrayElement;
 
-  private BooleanWritable result;
+  // 每次 evaluate() 复用的返回值，只属于当前实例，与 Hive 内置函数一样依赖实例不被多个线程共享
+  private transient BooleanWritable result;
+
+  private transient UDFMetrics metrics = UDFMetrics.DISABLED;
+
+  @Override
+  public void configure(MapredContext context) {
+    metrics = UDFMetrics.create(context, UDFArrayContains.class);
+  }
 
   @Override
   public ObjectInspector initialize(ObjectInspector[] arguments) throws UDFArgumentException {
@@ -74,6 +85,7 @@ public class UDFArrayContains extends GenericUDF {
   @Override
   public Object evaluate(GenericUDF.DeferredObject[] arguments) throws HiveException {
     this.result.set(false);
+    this.metrics.rowIn();
 
     Object array = arguments[0].get();
     Object value = arguments[1].get();
@@ -81,9 +93,13 @@ public class UDFArrayContains extends GenericUDF {
     int arrayLength = this.array.getListLength(array);
 
     if ((value == null) || (arrayLength <= 0)) {
+      if (value == null) {
+        this.metrics.nullSkipped();
+      }
       return this.result;
     }
 
+    long start = this.metrics.start();
     for (int i = 0; i < arrayLength; ++i) {
       Object listElement = this.array.getListElement(array, i);
       if ((listElement == null)
@@ -93,9 +109,15 @@ public class UDFArrayContains extends GenericUDF {
       this.result.set(true);
       break;
     }
+    this.metrics.stop(start);
     return this.result;
   }
 
+  @Override
+  public void close() throws IOException {
+    this.metrics.flush();
+  }
+
   @Override
   public String getDisplayString(String[] children) {
     assert (children.length == 2);
@@ -0,0 +1,174 @@
+package com.yunli.hive.udf;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.BytesWritable;
+
+/**
+ * 判断某个值是否可能在 {@link UDAFBloomFilter} 构建的 Bloom filter 中
+ *
+ * 返回 false 时一定不存在；返回 true 时可能存在，误判率由构建时的 fpp 决定。
+ * 常量参数的 filter 在 initialize 时反序列化一次。否则（例如 CROSS JOIN 子查询结果、按分组 join 得到的
+ * 各个分组的 filter）每行直接在 filter 参数的序列化字节上探测，不反序列化也不缓存，
+ * 所以 filter 按行变化时结果总是对应当前行的 filter，每行的代价只有 k 次位检查，与 filter 大小无关。
+ *
+ * 创建临时函数：
+ * add jar /tmp/hive-udfs-1.0-SNAPSHOT.jar;
+ * create temporary function my_bloom_contains as 'com.yunli.hive.udf.UDFBloomContains';
+ *
+ * 创建永久函数：
+ * hdfs dfs -put -f /tmp/hive-udfs-1.0-SNAPSHOT.jar /hive/libs
+ * CREATE FUNCTION my_bloom_contains AS 'com.yunli.hive.udf.UDFBloomContains' USING JAR 'hdfs:///hive/libs/hive-udfs-1.0-SNAPSHOT.jar';
+ *
+ * 测试：
+ * hive> SELECT s.id FROM staff s
+ *     > CROSS JOIN (SELECT default.my_bloom_filter(id, 100, 0.01) bf FROM staff WHERE age > 40) f
+ *     > WHERE default.my_bloom_contains(f.bf, s.id);
+ * 结果：
+ * 4
+ * 8
+ * 100
+ * 4
+ * 8
+ */
+@Description(name = "bloom_contains",
+    value = "_FUNC_(bloom_filter, value) - Returns TRUE if the value might be in the bloom filter, "
+        + "FALSE if it is definitely not.",
+    extended = "Example:\n  > SELECT _FUNC_(f.bf, s.id) FROM src s CROSS JOIN filters f;\n  true")
+public class UDFBloomContains extends GenericUDF {
+
+  private transient PrimitiveObjectInspector filterOI;
+
+  private transient PrimitiveObjectInspector valueOI;
+
+  // 常量参数在 initialize 时反序列化的 filter，非常量参数时为 null
+  private transient BloomFilter filter;
+
+  // 预先加载的 filter 是否已经记过缓存命中，与 UDTFDictNameParser 一样每个实例只记一次，而不是每行记一次
+  private transient boolean hitCounted;
+
+  // 每次 evaluate() 复用的返回值，只属于当前实例，与 Hive 内置函数一样依赖实例不被多个线程共享
+  private transient BooleanWritable result;
+
+  private transient UDFMetrics metrics = UDFMetrics.DISABLED;
+
+  @Override
+  public void configure(MapredContext context) {
+    metrics = UDFMetrics.create(context, UDFBloomContains.class);
+  }
+
+  @Override
+  public ObjectInspector initialize(ObjectInspector[] arguments) throws UDFArgumentException {
+    if (arguments.length != 2) {
+      throw new UDFArgumentException("The function BLOOM_CONTAINS accepts 2 arguments.");
+    }
+
+    if (!isPrimitive(arguments[0], PrimitiveObjectInspector.PrimitiveCategory.BINARY)) {
+      throw new UDFArgumentTypeException(0, "\"binary\" expected at function BLOOM_CONTAINS, but \""
+          + arguments[0].getTypeName() + "\" " + "is found");
+    }
+
+    if (arguments[1].getCategory() != ObjectInspector.Category.PRIMITIVE) {
+      throw new UDFArgumentTypeException(1, "A primitive value expected at function BLOOM_CONTAINS, but \""
+          + arguments[1].getTypeName() + "\" " + "is found");
+    }
+
+    this.filterOI = (PrimitiveObjectInspector) arguments[0];
+    this.valueOI = (PrimitiveObjectInspector) arguments[1];
+    this.filter = null;
+    this.hitCounted = false;
+
+    if (ObjectInspectorUtils.isConstantObjectInspector(this.filterOI)) {
+      Object constant = ((ConstantObjectInspector) this.filterOI).getWritableConstantValue();
+      if (constant != null) {
+        BytesWritable bytes = PrimitiveObjectInspectorUtils.getBinary(constant, this.filterOI);
+        this.filter = load(bytes);
+      }
+    }
+
+    this.result = new BooleanWritable(false);
+
+    return PrimitiveObjectInspectorFactory.writableBooleanObjectInspector;
+  }
+
+  private static boolean isPrimitive(ObjectInspector oi, PrimitiveObjectInspector.PrimitiveCategory category) {
+    return oi.getCategory() == ObjectInspector.Category.PRIMITIVE
+        && ((PrimitiveObjectInspector) oi).getPrimitiveCategory() == category;
+  }
+
+  private static BloomFilter load(BytesWritable bytes) throws UDFArgumentException {
+    try {
+      return BloomFilter.deserialize(bytes.getBytes(), bytes.getLength());
+    } catch (IllegalArgumentException e) {
+      throw new UDFArgumentException(e);
+    }
+  }
+
+  @Override
+  public Object evaluate(DeferredObject[] arguments) throws HiveException {
+    this.result.set(false);
+    this.metrics.rowIn();
+
+    Object value = arguments[1].get();
+    if (value == null) {
+      this.metrics.nullSkipped();
+      return this.result;
+    }
+
+    if (this.filter != null) {
+      // initialize 时预先加载的 filter
+      countHit();
+      long start = this.metrics.start();
+      this.result.set(this.filter.mightContain(BloomFilter.hash(value, this.valueOI)));
+      this.metrics.stop(start);
+      return this.result;
+    }
+
+    Object serialized = ObjectInspectorUtils.isConstantObjectInspector(this.filterOI) ? null : arguments[0].get();
+    if (serialized == null) {
+      this.metrics.nullSkipped();
+      return this.result;
+    }
+    BytesWritable bytes = PrimitiveObjectInspectorUtils.getBinary(serialized, this.filterOI);
+    long start = this.metrics.start();
+    try {
+      this.result.set(BloomFilter.mightContain(bytes.getBytes(), bytes.getLength(),
+          BloomFilter.hash(value, this.valueOI)));
+    } catch (IllegalArgumentException e) {
+      throw new UDFArgumentException(e);
+    }
+    this.metrics.stop(start);
+    return this.result;
+  }
+
+  private void countHit() {
+    if (!this.hitCounted) {
+      this.hitCounted = true;
+      this.metrics.cacheHit();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.metrics.flush();
+  }
+
+  @Override
+  public String getDisplayString(String[] children) {
+    assert (children.length == 2);
+    return "bloom_contains(" + children[0] + ", " + children[1] + ")";
+  }
+}
@@ -25,6 +25,10 @@ import org.apache.hadoop.hive.ql.exec.UDF;
 @Description(name = "udfMD5", value = "_FUNC_(string) - MD5", extended = "Example:\n"
     + "  > SELECT my_udf_md5('mytst');\n")
 public class UDFMD5 extends UDF {
+  // MessageDigest 不是线程安全的，每个实例各自持有一个并复用，不在实例之间共享。
+  // Hive 为每个算子（LLAP 中为每个 fragment）创建独立的 UDF 实例，同一个实例只会在一个线程中调用
+  private transient MessageDigest md;
+
   /**
    * 得到输入字符串的md5值
    * @param message 输入的字符串
@@ -35,7 +39,10 @@ public class UDFMD5 extends UDF {
       return null;
     }
     try {
-      MessageDigest md = MessageDigest.getInstance("MD5");
+      if (md == null) {
+        md = MessageDigest.getInstance("MD5");
+      }
+      // digest() 结束后 md 会自动重置
       md.update(message.getBytes());
       byte[] messageDigest = md.digest();
       BigInteger msgInt = new BigInteger(1, messageDigest);
@@ -0,0 +1,166 @@
+package com.yunli.hive.udf;
+
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * 函数的运行时指标，通过 task 的计数器（Counters）输出到作业的统计信息中
+ *
+ * 开启：
+ * set yunli.udf.metrics=true;
+ * set yunli.udf.metrics.sample.interval=1024;
+ *
+ * 函数在 configure(MapredContext) 中创建指标，在 close() 中输出。MapReduce 的 ExecMapper / ExecReducer
+ * 在处理第一行数据时才给 MapredContext 设置 Reporter，晚于 configure，所以 Reporter 在 flush() 时才读取。
+ * 计数器分组为 yunli.udf，
+ * 名称为 类名.指标，例如 UDAFAvg.ROWS_IN：
+ * ROWS_IN            输入行数（UDAF 的 merge() 按部分聚合结果计）
+ * ROWS_OUT           输出行数
+ * NULLS_SKIPPED      因为参数为 NULL 被跳过的行数
+ * NANOS              每 sample.interval 次调用计时一次，按采样估算的总耗时
+ * CACHE_HITS         复用已加载的词典、bloom filter 的次数，同一实例复用同一份数据只记一次
+ * PEAK_BUFFER_SIZE   单个聚合 Buffer 在输出时的最大估算字节数，各 UDAF 都取 Buffer 的 estimate()，
+ *                    与 Hive 内存检查使用的估算相同；作业的计数器是各 task 峰值之和
+ *
+ * 没有开启、或者不在 MapReduce / Tez task 中运行（例如本地 fetch 任务不会调用 configure）时，
+ * 函数持有 {@link #DISABLED}，每个记录方法只有一次 final 字段的判断。
+ * 实例不是线程安全的，每个函数实例各自持有一个。
+ */
+final class UDFMetrics {
+
+  static final String ENABLED = "yunli.udf.metrics";
+
+  static final String SAMPLE_INTERVAL = "yunli.udf.metrics.sample.interval";
+
+  static final int DEFAULT_SAMPLE_INTERVAL = 1024;
+
+  static final String GROUP = "yunli.udf";
+
+  static final UDFMetrics DISABLED = new UDFMetrics(null, null, 1);
+
+  private final boolean enabled;
+
+  private final MapredContext context;
+
+  private final String prefix;
+
+  // 采样间隔向上取整为 2 的幂，calls & sampleMask == 0 时计时
+  private final int sampleMask;
+
+  private long calls;
+
+  private long rowsIn;
+
+  private long rowsOut;
+
+  private long nullsSkipped;
+
+  private long nanos;
+
+  private long cacheHits;
+
+  private long peakBufferSize;
+
+  // 已经输出过的 PEAK_BUFFER_SIZE，再次 flush() 时只输出增量
+  private long publishedPeakBufferSize;
+
+  private UDFMetrics(MapredContext context, String function, int sampleInterval) {
+    this.enabled = context != null;
+    this.context = context;
+    this.prefix = function + ".";
+    this.sampleMask = Integer.highestOneBit(Math.max(1, sampleInterval) * 2 - 1) - 1;
+  }
+
+  /**
+   * @param function 计数器名称的前缀，使用函数的类名
+   */
+  static UDFMetrics create(MapredContext context, Class<?> function) {
+    if (context == null) {
+      return DISABLED;
+    }
+    JobConf conf = context.getJobConf();
+    if (conf == null || !conf.getBoolean(ENABLED, false)) {
+      return DISABLED;
+    }
+    return new UDFMetrics(context, function.getSimpleName(),
+        conf.getInt(SAMPLE_INTERVAL, DEFAULT_SAMPLE_INTERVAL));
+  }
+
+  void rowIn() {
+    if (enabled) {
+      rowsIn++;
+    }
+  }
+
+  void rowsOut(int rows) {
+    if (enabled) {
+      rowsOut += rows;
+    }
+  }
+
+  void nullSkipped() {
+    if (enabled) {
+      nullsSkipped++;
+    }
+  }
+
+  void cacheHit() {
+    if (enabled) {
+      cacheHits++;
+    }
+  }
+
+  void bufferSize(long size) {
+    if (enabled && size > peakBufferSize) {
+      peakBufferSize = size;
+    }
+  }
+
+  /**
+   * 开始一次调用，被采样时返回当前时间，否则返回 0
+   */
+  long start() {
+    if (!enabled || (++calls & sampleMask) != 0) {
+      return 0;
+    }
+    return System.nanoTime();
+  }
+
+  /**
+   * 结束一次调用，start 为 {@link #start()} 的返回值
+   */
+  void stop(long start) {
+    if (start != 0) {
+      nanos += (System.nanoTime() - start) * (sampleMask + 1);
+    }
+  }
+
+  /**
+   * 把累计的指标加到计数器上并清零，在函数的 close() 中调用；还没有 Reporter（task 没有处理过任何行）时保留到下一次
+   */
+  void flush() {
+    Reporter reporter = enabled ? context.getReporter() : null;
+    if (reporter == null) {
+      return;
+    }
+    incr(reporter, "ROWS_IN", rowsIn);
+    incr(reporter, "ROWS_OUT", rowsOut);
+    incr(reporter, "NULLS_SKIPPED", nullsSkipped);
+    incr(reporter, "NANOS", nanos);
+    incr(reporter, "CACHE_HITS", cacheHits);
+    incr(reporter, "PEAK_BUFFER_SIZE", peakBufferSize - publishedPeakBufferSize);
+    rowsIn = 0;
+    rowsOut = 0;
+    nullsSkipped = 0;
+    nanos = 0;
+    cacheHits = 0;
+    publishedPeakBufferSize = peakBufferSize;
+  }
+
+  private void incr(Reporter reporter, String counter, long amount) {
+    if (amount != 0) {
+      reporter.incrCounter(GROUP, prefix + counter, amount);
+    }
+  }
+}
@@ -0,0 +1,386 @@
+package com.yunli.hive.udf;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDTF;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.io.Text;
+
+/**
+ * 基于姓氏词典清洗人名，支持中文名（含欧阳、司马等复姓）和英文名
+ *
+ * 姓氏词典编译成 {@link CharTrie}，每个 JVM 按词典来源只加载一次，在第一行数据到来时加载；
+ * 中文名按最长匹配切出姓氏，且至少保留一个字作为名字。分隔词在 initialize 时编译一次，
+ * 一行中的多个名字依次输出，"John and Ann White" 这样只有名字的部分沿用后一个人的姓氏。
+ *
+ * dict 为 NULL 或空串时使用 jar 中自带的词典；classpath: 开头时从 classpath 读取；
+ * 否则为文件路径，先在当前目录查找同名文件（ADD FILE 分发的文件），再按完整路径查找。
+ * 词典为 UTF-8 文本，每行一个姓氏，# 开头为注释。
+ * separators 为逗号分隔的分隔词，默认 "and,&,和,、"：英文单词需要两侧是空白，
+ * 中文字需要两侧是空白或各有至少两个字（避免把"王和平"拆开），其他符号直接切分。
+ *
+ * 创建临时函数：
+ * add jar /tmp/hive-udfs-1.0-SNAPSHOT.jar;
+ * create temporary function my_dict_name_parser as 'com.yunli.hive.udf.UDTFDictNameParser';
+ *
+ * 创建永久函数：
+ * hdfs dfs -put -f /tmp/hive-udfs-1.0-SNAPSHOT.jar /hive/libs
+ * CREATE FUNCTION my_dict_name_parser AS 'com.yunli.hive.udf.UDTFDictNameParser' USING JAR 'hdfs:///hive/libs/hive-udfs-1.0-SNAPSHOT.jar';
+ *
+ * 测试：
+ * hive> select * from people;
+ * 张三
+ * 欧阳锋
+ * 李四和贾八
+ * 王和平
+ * John and Ann White
+ *
+ * hive> SELECT adTable.name,adTable.surname FROM people lateral view default.my_dict_name_parser(name) adTable as name,surname;
+ * 结果：
+ * 三	张
+ * 锋	欧阳
+ * 四	李
+ * 八	贾
+ * 和平	王
+ * John	White
+ * Ann	White
+ *
+ * 使用自定义词典：
+ * hive> ADD FILE hdfs:///hive/dict/surnames.txt;
+ * hive> SELECT adTable.* FROM people lateral view default.my_dict_name_parser(name, 'surnames.txt') adTable as name,surname;
+ */
+@Description(name = "dict_name_parser",
+    value = "_FUNC_(name[, dict[, separators]]) - Splits the names in a string into (name, surname) rows "
+        + "using a surname dictionary",
+    extended = "Example:\n  > SELECT _FUNC_('欧阳锋和张三');\n  锋\t欧阳\n  三\t张")
+public class UDTFDictNameParser extends GenericUDTF {
+
+  static final String DEFAULT_DICTIONARY = "surnames.txt";
+
+  static final String DEFAULT_SEPARATORS = "and,&,和,、";
+
+  private static final String CLASSPATH_PREFIX = "classpath:";
+
+  // 同一个 JVM 中的多个 task / 多个实例共享已编译的词典，key 见 dictionaryKey()；
+  // CharTrie 只读，并发加载时由 putIfAbsent 决定保留哪一份
+  private static final ConcurrentHashMap<String, CharTrie> DICTIONARIES = new ConcurrentHashMap<String, CharTrie>();
+
+  private transient StringObjectInspector stringOI;
+
+  private transient String dictionary;
+
+  private transient CharTrie surnames;
+
+  private transient CharTrie separators;
+
+  // 等待沿用后一个人姓氏的名字在当前行中的起止位置
+  private final List<int[]> pending = new ArrayList<int[]>();
+
+  private final Text name = new Text();
+
+  private final Text surname = new Text();
+
+  private final Object[] row = new Object[] {name, surname};
+
+  private transient UDFMetrics metrics = UDFMetrics.DISABLED;
+
+  @Override
+  public void configure(MapredContext mapredContext) {
+    metrics = UDFMetrics.create(mapredContext, UDTFDictNameParser.class);
+  }
+
+  @Override
+  public StructObjectInspector initialize(ObjectInspector[] args) throws UDFArgumentException {
+    if (args.length < 1 || args.length > 3) {
+      throw new UDFArgumentException("UDTFDictNameParser() takes one to three arguments");
+    }
+
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].getCategory() != ObjectInspector.Category.PRIMITIVE
+          || ((PrimitiveObjectInspector) args[i]).getPrimitiveCategory()
+          != PrimitiveObjectInspector.PrimitiveCategory.STRING) {
+        throw new UDFArgumentTypeException(i, "UDTFDictNameParser() takes string parameters");
+      }
+    }
+
+    // input
+    stringOI = (StringObjectInspector) args[0];
+    dictionary = args.length > 1 ? readConstant(args[1], 1) : null;
+    String separatorList = args.length > 2 ? readConstant(args[2], 2) : null;
+    separators = compileSeparators(separatorList == null ? DEFAULT_SEPARATORS : separatorList);
+    // 词典文件可能只在 task 节点上存在，延迟到第一行数据再加载
+    surnames = null;
+
+    // output
+    List<String> fieldNames = new ArrayList<String>(2);
+    List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>(2);
+    fieldNames.add("name");
+    fieldNames.add("surname");
+    fieldOIs.add(PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+    fieldOIs.add(PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+    return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+  }
+
+  private static String readConstant(ObjectInspector oi, int i) throws UDFArgumentException {
+    if (!ObjectInspectorUtils.isConstantObjectInspector(oi)) {
+      throw new UDFArgumentTypeException(i, "Argument " + (i + 1) + " must be a constant.");
+    }
+    Object constant = ((ConstantObjectInspector) oi).getWritableConstantValue();
+    return constant == null ? null : constant.toString();
+  }
+
+  static CharTrie compileSeparators(String separatorList) {
+    List<String> words = new ArrayList<String>();
+    for (String separator : separatorList.split(",")) {
+      separator = separator.trim();
+      if (!separator.isEmpty()) {
+        words.add(separator);
+      }
+    }
+    return CharTrie.build(words);
+  }
+
+  /**
+   * 词典对应的本地文件，默认词典和 classpath 中的词典返回 null
+   */
+  private static File dictionaryFile(String source) {
+    if (source.isEmpty() || source.startsWith(CLASSPATH_PREFIX)) {
+      return null;
+    }
+    // ADD FILE 分发的文件位于 task 的当前目录，文件名与原路径的最后一段相同
+    File file = new File(new File(source).getName());
+    return file.isFile() ? file : new File(source);
+  }
+
+  /**
+   * 词典在缓存中的 key。文件按绝对路径、长度和修改时间区分，LLAP 或复用的容器中后续查询重新上传了同名词典时
+   * 会重新加载，而不是沿用之前查询的词典；classpath 中的词典在 JVM 生命周期内不变，只按名称区分
+   */
+  private static String dictionaryKey(String source, File file) {
+    return file == null ? source : file.getAbsolutePath() + '|' + file.length() + '|' + file.lastModified();
+  }
+
+  private static CharTrie loadDictionary(String source, File file, String key) throws IOException {
+    CharTrie loaded = CharTrie.build(readWords(source, file));
+    CharTrie trie = DICTIONARIES.putIfAbsent(key, loaded);
+    if (file != null) {
+      // 同一文件的旧版本不会再被用到，正在使用的实例仍持有自己的引用
+      String prefix = file.getAbsolutePath() + '|';
+      for (String cached : DICTIONARIES.keySet()) {
+        if (cached.startsWith(prefix) && !cached.equals(key)) {
+          DICTIONARIES.remove(cached);
+        }
+      }
+    }
+    return trie == null ? loaded : trie;
+  }
+
+  private static List<String> readWords(String source, File file) throws IOException {
+    InputStream in;
+    if (source.isEmpty()) {
+      in = UDTFDictNameParser.class.getResourceAsStream(DEFAULT_DICTIONARY);
+    } else if (file == null) {
+      String path = source.substring(CLASSPATH_PREFIX.length());
+      in = UDTFDictNameParser.class.getClassLoader().getResourceAsStream(path.startsWith("/") ? path.substring(1) : path);
+    } else {
+      in = file.isFile() ? new FileInputStream(file) : null;
+    }
+    if (in == null) {
+      throw new IOException("Surname dictionary not found: " + (source.isEmpty() ? DEFAULT_DICTIONARY : source));
+    }
+
+    List<String> words = new ArrayList<String>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (!line.isEmpty() && !line.startsWith("#")) {
+          words.add(line);
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return words;
+  }
+
+  @Override
+  public void process(Object[] record) throws HiveException {
+    metrics.rowIn();
+    // ignoring null input
+    Text text = record[0] == null ? null : stringOI.getPrimitiveWritableObject(record[0]);
+    if (text == null) {
+      metrics.nullSkipped();
+      return;
+    }
+
+    if (surnames == null) {
+      String source = dictionary == null ? "" : dictionary.trim();
+      File file = dictionaryFile(source);
+      String key = dictionaryKey(source, file);
+      surnames = DICTIONARIES.get(key);
+      if (surnames != null) {
+        // 同一个 JVM 中其他实例已经编译过这个版本的词典
+        metrics.cacheHit();
+      } else {
+        try {
+          surnames = loadDictionary(source, file, key);
+        } catch (IOException e) {
+          throw new HiveException(e);
+        }
+      }
+    }
+
+    // 解析过程中逐个 forward()，计时包括下游算子处理这些行的时间
+    long start = metrics.start();
+    String s = text.toString();
+    int length = s.length();
+    pending.clear();
+    int segmentStart = 0;
+    int i = 0;
+    while (i < length) {
+      int matched = separators.longestMatch(s, i, length);
+      if (matched > 0 && isSeparator(s, i, i + matched, segmentStart)) {
+        parseSegment(s, segmentStart, i);
+        i += matched;
+        segmentStart = i;
+      } else {
+        i++;
+      }
+    }
+    parseSegment(s, segmentStart, length);
+    metrics.stop(start);
+  }
+
+  /**
+   * 判断 [start, end) 处匹配到的分隔词在上下文中是否成立
+   */
+  private static boolean isSeparator(String s, int start, int end, int segmentStart) {
+    char first = s.charAt(start);
+    if (!Character.isLetter(first)) {
+      return true;
+    }
+    boolean standalone = (start == 0 || Character.isWhitespace(s.charAt(start - 1)))
+        && (end == s.length() || Character.isWhitespace(s.charAt(end)));
+    if (first < 128) {
+      // 英文单词作为分隔词时必须独立成词
+      return standalone;
+    }
+    // 中文字作为分隔词时独立成词，或两侧都能构成完整的姓名
+    return standalone || (lettersBefore(s, start, segmentStart) >= 2 && lettersAfter(s, end) >= 2);
+  }
+
+  private static int lettersBefore(String s, int index, int limit) {
+    int count = 0;
+    for (int i = index - 1; i >= limit && count < 2 && Character.isLetter(s.charAt(i)); i--) {
+      count++;
+    }
+    return count;
+  }
+
+  private static int lettersAfter(String s, int index) {
+    int count = 0;
+    for (int i = index; i < s.length() && count < 2 && Character.isLetter(s.charAt(i)); i++) {
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * 解析分隔词之间的一个名字，能确定姓氏时输出
+   */
+  private void parseSegment(String s, int start, int end) throws HiveException {
+    while (start < end && Character.isWhitespace(s.charAt(start))) {
+      start++;
+    }
+    while (end > start && Character.isWhitespace(s.charAt(end - 1))) {
+      end--;
+    }
+    if (start == end) {
+      return;
+    }
+
+    int space = start;
+    while (space < end && !Character.isWhitespace(s.charAt(space))) {
+      space++;
+    }
+
+    if (space == end) {
+      // 单个词：中文名按词典切分，英文名等待后一个人的姓氏
+      if (isHan(s.charAt(start))) {
+        pending.clear();
+        int matched = surnames.longestMatch(s, start, end - 1);
+        if (matched > 0) {
+          forward(s, start + matched, end, start, start + matched);
+        }
+      } else {
+        pending.add(new int[] {start, end});
+      }
+      return;
+    }
+
+    int second = space;
+    while (Character.isWhitespace(s.charAt(second))) {
+      second++;
+    }
+    for (int i = second; i < end; i++) {
+      if (Character.isWhitespace(s.charAt(i))) {
+        // 超过两个词，无法判断
+        pending.clear();
+        return;
+      }
+    }
+
+    if (isHan(s.charAt(start)) && surnames.longestMatch(s, start, space) == space - start) {
+      // "欧阳 锋"：姓在前
+      pending.clear();
+      forward(s, second, end, start, space);
+      return;
+    }
+
+    // "Ann White"：姓在后，前面只有名字的部分沿用这个姓
+    for (int[] given : pending) {
+      forward(s, given[0], given[1], second, end);
+    }
+    pending.clear();
+    forward(s, start, space, second, end);
+  }
+
+  private static boolean isHan(char c) {
+    return Character.UnicodeScript.of(c) == Character.UnicodeScript.HAN;
+  }
+
+  private void forward(String s, int nameStart, int nameEnd, int surnameStart, int surnameEnd) throws HiveException {
+    name.set(s.substring(nameStart, nameEnd));
+    surname.set(s.substring(surnameStart, surnameEnd));
+    forward(row);
+    metrics.rowsOut(1);
+  }
+
+  @Override
+  public void close() throws HiveException {
+    metrics.flush();
+  }
+}
@@ -1,9 +1,10 @@
 package com.yunli.hive.udf;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
+import org.apache.hadoop.hive.ql.exec.MapredContext;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDTF;
@@ -12,6 +13,8 @@ import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.io.Text;
 
 /**
  * 清洗人名
@@ -42,7 +45,36 @@ import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectIn
  * Ted	Green
  */
 public class UDTFNameParser extends GenericUDTF {
-  private PrimitiveObjectInspector stringOI = null;
+  // 只关心 2 个或 4 个单词的情况，多记录一个用来判断单词是否过多
+  private static final int MAX_TOKENS = 5;
+
+  private static final byte[] AND = {'a', 'n', 'd'};
+
+  private transient StringObjectInspector stringOI;
+
+  // 以下为按行复用的缓冲区，不随执行计划序列化，在 initialize() 中分配
+  // 每个单词在输入 Text 字节中的起止位置
+  private transient int[] tokenStarts;
+
+  private transient int[] tokenEnds;
+
+  // 输出行按输出形状预先分配："John Smith" 只用 firstRow，"John and Ann White" 两行都用
+  private transient Text firstName;
+
+  private transient Text secondName;
+
+  private transient Text surname;
+
+  private transient Object[] firstRow;
+
+  private transient Object[] secondRow;
+
+  private transient UDFMetrics metrics = UDFMetrics.DISABLED;
+
+  @Override
+  public void configure(MapredContext mapredContext) {
+    metrics = UDFMetrics.create(mapredContext, UDTFNameParser.class);
+  }
 
   @Override
   public StructObjectInspector initialize(ObjectInspector[] args) throws UDFArgumentException {
@@ -51,24 +83,104 @@ public class UDTFNameParser extends GenericUDTF {
     }
 
     if (args[0].getCategory() != ObjectInspector.Category.PRIMITIVE
-        && ((PrimitiveObjectInspector) args[0]).getPrimitiveCategory()
+        || ((PrimitiveObjectInspector) args[0]).getPrimitiveCategory()
         != PrimitiveObjectInspector.PrimitiveCategory.STRING) {
       throw new UDFArgumentException("UDTFNameParser() takes a string as a parameter");
     }
 
     // input
-    stringOI = (PrimitiveObjectInspector) args[0];
+    stringOI = (StringObjectInspector) args[0];
+    tokenStarts = new int[MAX_TOKENS];
+    tokenEnds = new int[MAX_TOKENS];
+    firstName = new Text();
+    secondName = new Text();
+    surname = new Text();
+    firstRow = new Object[] {firstName, surname};
+    secondRow = new Object[] {secondName, surname};
 
     // output
     List<String> fieldNames = new ArrayList<String>(2);
     List<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>(2);
     fieldNames.add("name");
     fieldNames.add("surname");
-    fieldOIs.add(PrimitiveObjectInspectorFactory.javaStringObjectInspector);
-    fieldOIs.add(PrimitiveObjectInspectorFactory.javaStringObjectInspector);
+    fieldOIs.add(PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+    fieldOIs.add(PrimitiveObjectInspectorFactory.writableStringObjectInspector);
     return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
   }
 
+  /**
+   * 按空白字符切分 UTF-8 字节，记录每个单词的起止位置
+   *
+   * 空白字符与正则 \s 一致，均为单字节 ASCII，不会落在多字节字符中间；首尾空白会被忽略。
+   *
+   * @return 单词个数，超过 MAX_TOKENS 时返回 MAX_TOKENS + 1
+   */
+  int tokenize(byte[] bytes, int length) {
+    int count = 0;
+    int i = 0;
+    while (i < length) {
+      while (i < length && isWhitespace(bytes[i])) {
+        i++;
+      }
+      if (i == length) {
+        break;
+      }
+      if (count == MAX_TOKENS) {
+        return MAX_TOKENS + 1;
+      }
+      tokenStarts[count] = i;
+      while (i < length && !isWhitespace(bytes[i])) {
+        i++;
+      }
+      tokenEnds[count++] = i;
+    }
+    return count;
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+  }
+
+  private boolean tokenEquals(byte[] bytes, int token, byte[] expected) {
+    int start = tokenStarts[token];
+    int length = tokenEnds[token] - start;
+    if (length != expected.length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (bytes[start + i] != expected[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void setToken(Text target, byte[] bytes, int token) {
+    target.set(bytes, tokenStarts[token], tokenEnds[token] - tokenStarts[token]);
+  }
+
+  /**
+   * 解析一个名字，返回需要输出的行数，输出行写入 firstRow / secondRow
+   */
+  int parse(byte[] bytes, int length) {
+    int tokens = tokenize(bytes, length);
+
+    if (tokens == 2) {
+      setToken(firstName, bytes, 0);
+      setToken(surname, bytes, 1);
+      return 1;
+    } else if (tokens == 4 && tokenEquals(bytes, 1, AND)) {
+      setToken(firstName, bytes, 0);
+      setToken(secondName, bytes, 2);
+      setToken(surname, bytes, 3);
+      return 2;
+    }
+    return 0;
+  }
+
+  /**
+   * 解析单个名字，返回新分配的结果，只用于测试和本地调试，process() 不经过这里；调用前需要先 initialize()
+   */
   public ArrayList<Object[]> processInputRecord(String name) {
     ArrayList<Object[]> result = new ArrayList<Object[]>();
 
@@ -77,13 +189,13 @@ public class UDTFNameParser extends GenericUDTF {
       return result;
     }
 
-    String[] tokens = name.split("\\s+");
-
-    if (tokens.length == 2) {
-      result.add(new Object[] {tokens[0], tokens[1]});
-    } else if (tokens.length == 4 && tokens[1].equals("and")) {
-      result.add(new Object[] {tokens[0], tokens[3]});
-      result.add(new Object[] {tokens[2], tokens[3]});
+    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+    int rows = parse(bytes, bytes.length);
+    if (rows >= 1) {
+      result.add(new Object[] {firstName.toString(), surname.toString()});
+    }
+    if (rows == 2) {
+      result.add(new Object[] {secondName.toString(), surname.toString()});
     }
 
     return result;
@@ -91,19 +203,28 @@ public class UDTFNameParser extends GenericUDTF {
 
   @Override
   public void process(Object[] record) throws HiveException {
-    final String name = stringOI.getPrimitiveJavaObject(record[0]).toString();
-    ArrayList<Object[]> results = processInputRecord(name);
-
-    Iterator<Object[]> it = results.iterator();
+    metrics.rowIn();
+    // ignoring null input
+    Text name = record[0] == null ? null : stringOI.getPrimitiveWritableObject(record[0]);
+    if (name == null) {
+      metrics.nullSkipped();
+      return;
+    }
 
-    while (it.hasNext()) {
-      Object[] r = it.next();
-      forward(r);
+    long start = metrics.start();
+    int rows = parse(name.getBytes(), name.getLength());
+    metrics.stop(start);
+    if (rows >= 1) {
+      forward(firstRow);
+    }
+    if (rows == 2) {
+      forward(secondRow);
     }
+    metrics.rowsOut(rows);
   }
 
   @Override
   public void close() throws HiveException {
-    // do nothing
+    metrics.flush();
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,100 @@
+package com.yunli.hive.udf;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * @Description: BloomFilter 的测试类
+ **/
+public class BloomFilterTest {
+
+  @Test
+  public void testNoFalseNegatives() {
+    BloomFilter filter = BloomFilter.create(1000, 0.01);
+    for (long i = 0; i < 1000; i++) {
+      filter.add(BloomFilter.hashLong(i));
+    }
+    for (long i = 0; i < 1000; i++) {
+      assertTrue(filter.mightContain(BloomFilter.hashLong(i)));
+    }
+  }
+
+  @Test
+  public void testFalsePositiveRate() {
+    BloomFilter filter = BloomFilter.create(10000, 0.01);
+    for (long i = 0; i < 10000; i++) {
+      filter.add(BloomFilter.hashLong(i));
+    }
+    int falsePositives = 0;
+    for (long i = 10000; i < 110000; i++) {
+      if (filter.mightContain(BloomFilter.hashLong(i))) {
+        falsePositives++;
+      }
+    }
+    // 期望 1%，留出余量
+    assertTrue("false positives: " + falsePositives, falsePositives < 2000);
+  }
+
+  @Test
+  public void testSerializeAndMerge() {
+    BloomFilter a = BloomFilter.create(100, 0.03);
+    BloomFilter b = BloomFilter.create(100, 0.03);
+    a.add(BloomFilter.hashLong(1));
+    byte[] bytes = "张三".getBytes();
+    b.add(BloomFilter.hashBytes(bytes, 0, bytes.length));
+
+    byte[] serialized = b.serialize();
+    a.merge(serialized, serialized.length);
+    assertTrue(a.mightContain(BloomFilter.hashLong(1)));
+    assertTrue(a.mightContain(BloomFilter.hashBytes(bytes, 0, bytes.length)));
+
+    byte[] merged = a.serialize();
+    BloomFilter copy = BloomFilter.deserialize(merged, merged.length);
+    assertArrayEquals(merged, copy.serialize());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMergeDifferentSizes() {
+    BloomFilter a = BloomFilter.create(100, 0.03);
+    byte[] other = BloomFilter.create(100000, 0.03).serialize();
+    a.merge(other, other.length);
+  }
+
+  @Test
+  public void testEmptyFilter() {
+    BloomFilter filter = BloomFilter.create(100, 0.03);
+    assertFalse(filter.mightContain(BloomFilter.hashLong(42)));
+  }
+
+  /**
+   * 直接在序列化字节上探测，与反序列化后探测的结果逐个相同
+   */
+  @Test
+  public void testProbeSerialized() {
+    for (long expectedItems : new long[] {10, 1000, 100000}) {
+      BloomFilter filter = BloomFilter.create(expectedItems, 0.03);
+      for (long i = 0; i < expectedItems; i += 3) {
+        filter.add(BloomFilter.hashLong(i));
+      }
+      byte[] serialized = filter.serialize();
+      // 末尾多余的字节不属于 filter
+      byte[] padded = Arrays.copyOf(serialized, serialized.length + 16);
+      for (long i = 0; i < 2 * expectedItems; i++) {
+        long hash = BloomFilter.hashLong(i);
+        assertEquals(filter.mightContain(hash), BloomFilter.mightContain(padded, serialized.length, hash));
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testProbeTruncated() {
+    byte[] serialized = BloomFilter.create(100, 0.03).serialize();
+    BloomFilter.mightContain(serialized, serialized.length - 8, BloomFilter.hashLong(1));
+  }
+}
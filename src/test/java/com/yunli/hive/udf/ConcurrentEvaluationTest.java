@@ -0,0 +1,350 @@
+package com.yunli.hive.udf;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDTF;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @Description: 多线程并发执行各函数的测试类
+ *
+ * 模拟 LLAP / Spark executor 在一个 JVM 中同时运行多个 fragment：THREADS 个线程各自创建函数实例，
+ * 同时处理同一份只读输入，结果必须与单线程执行一致。线程之间共享的只有静态缓存（姓氏词典）
+ * 和只读的输入（包括序列化后的 bloom filter）。
+ **/
+public class ConcurrentEvaluationTest {
+
+  private static final int THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+  private static final int ROWS = 2000;
+
+  private static final String[] NAMES = {
+      "张三和李四", "欧阳锋", "司马光、诸葛亮", "John Smith", "John and Ann White", "Ted & Mary Brown", "王五"};
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * 一个线程的任务：创建自己的函数实例，处理全部输入并返回结果
+   */
+  private interface Task {
+    List<String> run() throws Exception;
+  }
+
+  private static void assertConcurrent(List<String> expected, final Task task) throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+    final CountDownLatch start = new CountDownLatch(1);
+    try {
+      List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>(THREADS);
+      for (int i = 0; i < THREADS; i++) {
+        futures.add(pool.submit(new Callable<List<String>>() {
+          @Override
+          public List<String> call() throws Exception {
+            // 所有线程同时开始，尽量让对共享缓存的首次访问发生竞争
+            start.await();
+            return task.run();
+          }
+        }));
+      }
+      start.countDown();
+      for (Future<List<String>> future : futures) {
+        assertEquals(expected, future.get(60, TimeUnit.SECONDS));
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private static void assertConcurrent(Task task) throws Exception {
+    assertConcurrent(task.run(), task);
+  }
+
+  @Test
+  public void testMD5() throws Exception {
+    assertConcurrent(new Task() {
+      @Override
+      public List<String> run() {
+        UDFMD5 md5 = new UDFMD5();
+        List<String> result = new ArrayList<String>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+          result.add(md5.evaluate(NAMES[i % NAMES.length] + i));
+        }
+        return result;
+      }
+    });
+  }
+
+  @Test
+  public void testFindInArray() throws Exception {
+    Random random = new Random(3L);
+    final List<List<String>> arrays = new ArrayList<List<String>>(ROWS);
+    final List<String> needles = new ArrayList<String>(ROWS);
+    for (int i = 0; i < ROWS; i++) {
+      arrays.add(random.nextInt(10) == 0 ? null : Arrays.asList(NAMES).subList(0, 1 + random.nextInt(NAMES.length)));
+      needles.add(random.nextInt(10) == 0 ? null : NAMES[random.nextInt(NAMES.length)]);
+    }
+    assertConcurrent(new Task() {
+      @Override
+      public List<String> run() {
+        UDFFindInArray find = new UDFFindInArray();
+        List<String> result = new ArrayList<String>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+          result.add(String.valueOf(find.evaluate(needles.get(i), arrays.get(i))));
+        }
+        return result;
+      }
+    });
+  }
+
+  @Test
+  public void testArrayContains() throws Exception {
+    Random random = new Random(4L);
+    final List<List<String>> arrays = new ArrayList<List<String>>(ROWS);
+    final List<String> values = new ArrayList<String>(ROWS);
+    for (int i = 0; i < ROWS; i++) {
+      arrays.add(Arrays.asList(NAMES).subList(0, 1 + random.nextInt(NAMES.length)));
+      values.add(random.nextInt(10) == 0 ? null : NAMES[random.nextInt(NAMES.length)]);
+    }
+    assertConcurrent(new Task() {
+      @Override
+      public List<String> run() throws HiveException {
+        UDFArrayContains contains = new UDFArrayContains();
+        contains.initialize(new ObjectInspector[] {
+            ObjectInspectorFactory.getStandardListObjectInspector(
+                PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+            PrimitiveObjectInspectorFactory.javaStringObjectInspector});
+        List<String> result = new ArrayList<String>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+          result.add(contains.evaluate(new GenericUDF.DeferredObject[] {
+              new GenericUDF.DeferredJavaObject(arrays.get(i)),
+              new GenericUDF.DeferredJavaObject(values.get(i))}).toString());
+        }
+        return result;
+      }
+    });
+  }
+
+  /**
+   * 期望结果用一份词典单线程计算，并发时用另一份内容相同、尚未加载过的词典，
+   * 所有线程同时触发首次加载
+   */
+  @Test
+  public void testDictNameParserColdCache() throws Exception {
+    List<String> expected = dictNameParser(dictionary("warm.txt")).run();
+    assertConcurrent(expected, dictNameParser(dictionary("cold.txt")));
+  }
+
+  @Test
+  public void testNameParser() throws Exception {
+    assertConcurrent(new Task() {
+      @Override
+      public List<String> run() throws HiveException {
+        UDTFNameParser parser = new UDTFNameParser();
+        parser.initialize(new ObjectInspector[] {PrimitiveObjectInspectorFactory.writableStringObjectInspector});
+        List<String> result = collect(parser);
+        for (int i = 0; i < ROWS; i++) {
+          parser.process(new Object[] {new Text(NAMES[i % NAMES.length])});
+        }
+        parser.close();
+        return result;
+      }
+    });
+  }
+
+  /**
+   * 输出行会被复用，收集时转换成 "名/姓"
+   */
+  private static List<String> collect(GenericUDTF udtf) {
+    final List<String> result = new ArrayList<String>();
+    udtf.setCollector(new Collector() {
+      @Override
+      public void collect(Object input) {
+        Object[] row = (Object[]) input;
+        result.add(row[0] + "/" + row[1]);
+      }
+    });
+    return result;
+  }
+
+  private String dictionary(String name) throws IOException {
+    File file = folder.newFile(name);
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write("张\n李\n王\n欧阳\n司马\n诸葛\n".getBytes(StandardCharsets.UTF_8));
+    } finally {
+      out.close();
+    }
+    return file.getAbsolutePath();
+  }
+
+  private static Task dictNameParser(final String dictionary) {
+    return new Task() {
+      @Override
+      public List<String> run() throws HiveException {
+        UDTFDictNameParser parser = new UDTFDictNameParser();
+        parser.initialize(new ObjectInspector[] {
+            PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+            PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                TypeInfoFactory.stringTypeInfo, new Text(dictionary))});
+        List<String> result = collect(parser);
+        for (int i = 0; i < ROWS; i++) {
+          parser.process(new Object[] {new Text(NAMES[i % NAMES.length])});
+        }
+        parser.close();
+        return result;
+      }
+    };
+  }
+
+  /**
+   * 每个线程各自跑一遍完整的 PARTIAL1 -> PARTIAL2 -> FINAL 和 COMPLETE
+   */
+  @Test
+  public void testUDAFs() throws Exception {
+    Zipf key = new Zipf(50, 1.2, 5L);
+    Zipf value = new Zipf(200, 1.1, 6L);
+    final List<Object[]> rows = new ArrayList<Object[]>(ROWS);
+    for (int i = 0; i < ROWS; i++) {
+      rows.add(new Object[] {key.next(), value.next()});
+    }
+    assertConcurrent(new Task() {
+      @Override
+      public List<String> run() throws Exception {
+        UDAFHarness.Result avg = new UDAFHarness(new UDAFAvg(), "int")
+            .splits(4)
+            .partial2Splits(2)
+            .run(rows);
+        UDAFHarness.Result topK = new UDAFHarness(new UDAFTopK(), "int")
+            .constant("int", new IntWritable(5))
+            .splits(4)
+            .partial2Splits(2)
+            .run(rows);
+        return Arrays.asList(avg.finalResults.toString(), avg.completeResults.toString(),
+            topK.finalResults.toString(), topK.completeResults.toString());
+      }
+    });
+  }
+
+  /**
+   * my_collect 的三个 evaluator：数组、map 以及按 combine 合并的 map
+   */
+  @Test
+  public void testCollect() throws Exception {
+    Zipf key = new Zipf(50, 1.2, 11L);
+    Zipf value = new Zipf(200, 1.1, 12L);
+    final List<Object[]> values = new ArrayList<Object[]>(ROWS);
+    final List<Object[]> entries = new ArrayList<Object[]>(ROWS);
+    for (int i = 0; i < ROWS; i++) {
+      int k = key.next();
+      int v = value.next();
+      values.add(new Object[] {k, NAMES[v % NAMES.length]});
+      entries.add(new Object[] {k, NAMES[v % NAMES.length], v});
+    }
+    assertConcurrent(new Task() {
+      @Override
+      public List<String> run() throws Exception {
+        UDAFHarness.Result array = new UDAFHarness(new UDAFCollect(), "string")
+            .splits(4)
+            .partial2Splits(2)
+            .run(values);
+        UDAFHarness.Result map = new UDAFHarness(new UDAFCollect(), "string,int")
+            .splits(4)
+            .partial2Splits(2)
+            .run(entries);
+        UDAFHarness.Result sum = new UDAFHarness(new UDAFCollect(), "string,int")
+            .constant("string", new Text("sum"))
+            .splits(4)
+            .partial2Splits(2)
+            .run(entries);
+        return Arrays.asList(array.finalResults.toString(), array.completeResults.toString(),
+            map.finalResults.toString(), map.completeResults.toString(),
+            sum.finalResults.toString(), sum.completeResults.toString());
+      }
+    });
+  }
+
+  /**
+   * 每个线程各自构建 filter，再用常量 filter 和按行变化的 filter 探测
+   */
+  @Test
+  public void testBloomFilter() throws Exception {
+    Zipf key = new Zipf(10, 1.0, 13L);
+    Random random = new Random(14L);
+    final List<Object[]> rows = new ArrayList<Object[]>(ROWS);
+    for (int i = 0; i < ROWS; i++) {
+      rows.add(new Object[] {key.next(), random.nextInt(10) == 0 ? null : random.nextInt(5000)});
+    }
+    final BytesWritable[] filters = new BytesWritable[2];
+    for (int i = 0; i < filters.length; i++) {
+      BloomFilter filter = BloomFilter.create(1000, 0.01);
+      for (int j = i; j < 1000; j += 2) {
+        filter.add(BloomFilter.hashLong(j));
+      }
+      filters[i] = new BytesWritable(filter.serialize());
+    }
+    assertConcurrent(new Task() {
+      @Override
+      public List<String> run() throws Exception {
+        UDAFHarness.Result built = new UDAFHarness(new UDAFBloomFilter(), "int")
+            .constant("int", new IntWritable(1000))
+            .splits(4)
+            .partial2Splits(2)
+            .run(rows);
+        List<String> result = new ArrayList<String>();
+        for (Map.Entry<Integer, Object> entry : built.finalResults.entrySet()) {
+          result.add(entry.getKey() + "=" + Arrays.toString((byte[]) entry.getValue()));
+        }
+        for (Map.Entry<Integer, Object> entry : built.completeResults.entrySet()) {
+          result.add(entry.getKey() + "=" + Arrays.toString((byte[]) entry.getValue()));
+        }
+
+        UDFBloomContains constant = new UDFBloomContains();
+        constant.initialize(new ObjectInspector[] {
+            PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+                TypeInfoFactory.binaryTypeInfo, filters[0]),
+            PrimitiveObjectInspectorFactory.writableLongObjectInspector});
+        UDFBloomContains changing = new UDFBloomContains();
+        changing.initialize(new ObjectInspector[] {
+            PrimitiveObjectInspectorFactory.writableBinaryObjectInspector,
+            PrimitiveObjectInspectorFactory.writableLongObjectInspector});
+        for (int i = 0; i < ROWS; i++) {
+          GenericUDF.DeferredObject value = new GenericUDF.DeferredJavaObject(new LongWritable(i % 1000));
+          result.add(constant.evaluate(new GenericUDF.DeferredObject[] {
+              new GenericUDF.DeferredJavaObject(null), value}) + "/"
+              + changing.evaluate(new GenericUDF.DeferredObject[] {
+                  new GenericUDF.DeferredJavaObject(filters[(i / 7) % 2]), value}));
+        }
+        return result;
+      }
+    });
+  }
+}
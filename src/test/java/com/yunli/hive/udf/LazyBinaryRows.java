@@ -0,0 +1,125 @@
+package com.yunli.hive.udf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.serde.serdeConstants;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.lazybinary.LazyBinarySerDe;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.io.BytesWritable;
+
+/**
+ * 一批 LazyBinary 序列化后的行
+ *
+ * 与 shuffle 和中间文件使用同一种格式：读取时逐行反序列化，字段通过 serde 的
+ * ObjectInspector 访问，所以 UDF 拿到的是 LazyBinaryStruct、LazyBinaryArray 等对象，
+ * 而且这些对象会被下一行复用。
+ */
+final class LazyBinaryRows {
+
+  private final LazyBinarySerDe serde;
+
+  private final BytesWritable[] rows;
+
+  private final long bytes;
+
+  final StructObjectInspector rowOI;
+
+  private LazyBinaryRows(LazyBinarySerDe serde, BytesWritable[] rows, long bytes) throws SerDeException {
+    this.serde = serde;
+    this.rows = rows;
+    this.bytes = bytes;
+    this.rowOI = (StructObjectInspector) serde.getObjectInspector();
+  }
+
+  int size() {
+    return rows.length;
+  }
+
+  /**
+   * 序列化后的总字节数
+   */
+  long bytes() {
+    return bytes;
+  }
+
+  StructField field(String name) {
+    return rowOI.getStructFieldRef(name);
+  }
+
+  /**
+   * 反序列化第 i 行，返回的对象由 serde 复用，读取下一行之前有效
+   */
+  Object row(int i) throws SerDeException {
+    return serde.deserialize(rows[i]);
+  }
+
+  Object field(Object row, StructField field) {
+    return rowOI.getStructFieldData(row, field);
+  }
+
+  static StructObjectInspector structOI(String columns, ObjectInspector... fieldOIs) {
+    return ObjectInspectorFactory.getStandardStructObjectInspector(
+        Arrays.asList(columns.split(",")), Arrays.asList(fieldOIs));
+  }
+
+  /**
+   * 序列化一批行
+   *
+   * @param columns 逗号分隔的列名
+   * @param types   列类型，与 Hive 表定义一致，例如 "int,array<string>"
+   * @param rowOI   rows 中每一行（List 或数组）的 ObjectInspector
+   */
+  static LazyBinaryRows serialize(String columns, String types, ObjectInspector rowOI, List<?> rows)
+      throws SerDeException {
+    Writer writer = new Writer(columns, types, rowOI);
+    for (Object row : rows) {
+      writer.add(row);
+    }
+    return writer.finish();
+  }
+
+  /**
+   * 逐行序列化，行对象在 add() 返回后即可复用
+   */
+  static final class Writer {
+    private final LazyBinarySerDe serde;
+
+    private final ObjectInspector rowOI;
+
+    private final List<BytesWritable> rows = new ArrayList<BytesWritable>();
+
+    private long bytes;
+
+    Writer(String columns, String types, ObjectInspector rowOI) throws SerDeException {
+      Properties properties = new Properties();
+      properties.setProperty(serdeConstants.LIST_COLUMNS, columns);
+      properties.setProperty(serdeConstants.LIST_COLUMN_TYPES, types);
+      this.serde = new LazyBinarySerDe();
+      this.serde.initialize(new Configuration(), properties);
+      this.rowOI = rowOI;
+    }
+
+    void add(Object row) throws SerDeException {
+      // serialize() 复用同一个 BytesWritable，需要复制
+      BytesWritable serialized = (BytesWritable) serde.serialize(row, rowOI);
+      rows.add(new BytesWritable(Arrays.copyOf(serialized.getBytes(), serialized.getLength())));
+      bytes += serialized.getLength();
+    }
+
+    long bytes() {
+      return bytes;
+    }
+
+    LazyBinaryRows finish() throws SerDeException {
+      return new LazyBinaryRows(serde, rows.toArray(new BytesWritable[rows.size()]), bytes);
+    }
+  }
+}
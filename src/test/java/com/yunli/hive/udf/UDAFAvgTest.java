@@ -0,0 +1,68 @@
+package com.yunli.hive.udf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * @Description: UDAFAvg 的测试类
+ **/
+public class UDAFAvgTest {
+
+  private static final int ROWS = 10000;
+
+  /**
+   * 分组键倾斜，经过 LazyBinary 序列化的 PARTIAL1 -> PARTIAL2 -> FINAL 与 COMPLETE 的结果一致
+   */
+  @Test
+  public void testMultiPhase() throws Exception {
+    Random random = new Random(1L);
+    Zipf key = new Zipf(50, 1.2, 1L);
+    List<Object[]> rows = new ArrayList<Object[]>();
+    Map<Integer, long[]> expected = new TreeMap<Integer, long[]>();
+    for (int i = 0; i < ROWS; i++) {
+      int k = key.next();
+      Integer age = random.nextInt(20) == 0 ? null : 18 + random.nextInt(50);
+      rows.add(new Object[] {k, age});
+      long[] sumAndCount = expected.get(k);
+      if (sumAndCount == null) {
+        sumAndCount = new long[2];
+        expected.put(k, sumAndCount);
+      }
+      if (age != null) {
+        sumAndCount[0] += age;
+        sumAndCount[1]++;
+      }
+    }
+    // 全部为 NULL 的分组，与 staff 表中的 李四 一样返回 NaN
+    rows.add(new Object[] {100, null});
+    rows.add(new Object[] {100, null});
+    expected.put(100, new long[2]);
+
+    UDAFHarness.Result result = new UDAFHarness(new UDAFAvg(), "int")
+        .splits(8)
+        .partial2Splits(3)
+        .run(rows);
+
+    assertEquals(expected.keySet(), result.finalResults.keySet());
+    for (Map.Entry<Integer, long[]> entry : expected.entrySet()) {
+      Double avg = 1.0 * entry.getValue()[0] / entry.getValue()[1];
+      assertEquals(avg, result.finalResults.get(entry.getKey()));
+      assertEquals(avg, result.completeResults.get(entry.getKey()));
+    }
+
+    assertEquals(rows.size(), result.phase("PARTIAL1").rowsIn);
+    assertEquals(result.phase("PARTIAL1").rowsOut, result.phase("PARTIAL2").rowsIn);
+    assertEquals(expected.size(), result.phase("FINAL").rowsOut);
+    assertTrue(result.phase("PARTIAL1").bytesOut > 0);
+    assertTrue(result.phase("PARTIAL1").peakBufferBytes > 0);
+    assertTrue(result.phase("FINAL").peakBufferBytes > 0);
+  }
+}
@@ -0,0 +1,101 @@
+package com.yunli.hive.udf;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.junit.Test;
+
+/**
+ * @Description: UDAFBloomFilter 的测试类
+ **/
+public class UDAFBloomFilterTest {
+
+  private static final int EXPECTED_ITEMS = 1000;
+
+  private static final double FPP = 0.01;
+
+  /**
+   * 各个 split 的 filter 经过 PARTIAL2、FINAL 按位或后，与 COMPLETE 一次构建的 filter 完全相同，且没有漏判；
+   * 全部为 NULL 的分组输出同样参数的空 filter
+   */
+  @Test
+  public void testMergeAcrossSplits() throws Exception {
+    Random random = new Random(27L);
+    List<Object[]> rows = new ArrayList<Object[]>();
+    Map<Integer, Set<Integer>> expected = new TreeMap<Integer, Set<Integer>>();
+    for (int i = 0; i < 20000; i++) {
+      int key = random.nextInt(10);
+      Integer value = random.nextInt(10) == 0 ? null : random.nextInt(100000);
+      rows.add(new Object[] {key, value});
+      if (!expected.containsKey(key)) {
+        expected.put(key, new HashSet<Integer>());
+      }
+      if (value != null) {
+        expected.get(key).add(value);
+      }
+    }
+    // 空分组
+    for (int i = 0; i < 10; i++) {
+      rows.add(new Object[] {10, null});
+    }
+    expected.put(10, new HashSet<Integer>());
+
+    UDAFHarness.Result result = new UDAFHarness(new UDAFBloomFilter(), "int")
+        .constant("int", new IntWritable(EXPECTED_ITEMS))
+        .constant("double", new DoubleWritable(FPP))
+        .splits(8)
+        .partial2Splits(3)
+        .run(rows);
+
+    assertEquals(expected.keySet(), result.finalResults.keySet());
+    assertEquals(expected.keySet(), result.completeResults.keySet());
+    for (Map.Entry<Integer, Set<Integer>> entry : expected.entrySet()) {
+      byte[] merged = (byte[]) result.finalResults.get(entry.getKey());
+      assertArrayEquals((byte[]) result.completeResults.get(entry.getKey()), merged);
+
+      BloomFilter filter = BloomFilter.deserialize(merged, merged.length);
+      for (Integer value : entry.getValue()) {
+        assertTrue(entry.getKey() + ": " + value, filter.mightContain(hash(value)));
+      }
+    }
+    assertArrayEquals(BloomFilter.create(EXPECTED_ITEMS, FPP).serialize(), (byte[]) result.finalResults.get(10));
+  }
+
+  /**
+   * 部分聚合结果就是序列化后的 filter，大小只取决于 expected_items 和 fpp
+   */
+  @Test
+  public void testPartialSize() throws Exception {
+    List<Object[]> rows = new ArrayList<Object[]>();
+    for (int i = 0; i < 5000; i++) {
+      rows.add(new Object[] {i % 4, i});
+    }
+
+    UDAFHarness.Result result = new UDAFHarness(new UDAFBloomFilter(), "int")
+        .constant("int", new IntWritable(EXPECTED_ITEMS))
+        .constant("double", new DoubleWritable(FPP))
+        .splits(4)
+        .run(rows);
+
+    int size = BloomFilter.create(EXPECTED_ITEMS, FPP).serializedSize();
+    // map 端每个 split 同时持有 4 个分组的 filter
+    assertEquals(4L * size, result.phase("PARTIAL1").peakBufferBytes);
+    assertEquals((long) size, result.phase("FINAL").peakBufferBytes);
+  }
+
+  private static long hash(int value) {
+    return BloomFilter.hash(new IntWritable(value), PrimitiveObjectInspectorFactory.writableIntObjectInspector);
+  }
+}
@@ -0,0 +1,253 @@
+package com.yunli.hive.udf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.hadoop.hive.common.type.HiveDecimal;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+/**
+ * @Description: UDAFCollect 的测试类
+ **/
+public class UDAFCollectTest {
+
+  private static final int ROWS = 5000;
+
+  private static final String[] NAMES = {"张三", "李四", "王五", "陈六", "郑七", "贾八", "angle", "zyy--"};
+
+  /**
+   * reduce 端 merge() 收到的是 LazyBinaryArray，结果与 COMPLETE 一致（顺序取决于部分聚合结果的到达顺序，排序后比较）
+   */
+  @Test
+  public void testArrayCollect() throws Exception {
+    Random random = new Random(2L);
+    Zipf key = new Zipf(20, 1.2, 2L);
+    List<Object[]> rows = new ArrayList<Object[]>();
+    Map<Integer, List<String>> expected = new TreeMap<Integer, List<String>>();
+    for (int i = 0; i < ROWS; i++) {
+      int k = key.next();
+      String name = random.nextInt(10) == 0 ? null : NAMES[random.nextInt(NAMES.length)];
+      rows.add(new Object[] {k, name});
+      if (!expected.containsKey(k)) {
+        expected.put(k, new ArrayList<String>());
+      }
+      if (name != null) {
+        expected.get(k).add(name);
+      }
+    }
+
+    UDAFHarness.Result result = new UDAFHarness(new UDAFCollect(), "string")
+        .splits(6)
+        .partial2Splits(2)
+        .run(rows);
+
+    assertEquals(expected.keySet(), result.finalResults.keySet());
+    for (Map.Entry<Integer, List<String>> entry : expected.entrySet()) {
+      Collections.sort(entry.getValue());
+      assertEquals(entry.getValue(), sorted(result.finalResults.get(entry.getKey())));
+      assertEquals(entry.getValue(), sorted(result.completeResults.get(entry.getKey())));
+    }
+    assertTrue(result.phase("PARTIAL1").peakBufferBytes > 0);
+    assertTrue(result.phase("FINAL").peakBufferBytes > 0);
+  }
+
+  /**
+   * reduce 端 merge() 收到的是 LazyBinaryMap，每个分组内的 key 不重复
+   */
+  @Test
+  public void testMapCollect() throws Exception {
+    Zipf key = new Zipf(20, 1.2, 3L);
+    List<Object[]> rows = new ArrayList<Object[]>();
+    Map<Integer, Map<String, Integer>> expected = new TreeMap<Integer, Map<String, Integer>>();
+    for (int i = 0; i < ROWS; i++) {
+      int k = key.next();
+      String name = "name" + i;
+      rows.add(new Object[] {k, name, i % 100});
+      if (!expected.containsKey(k)) {
+        expected.put(k, new HashMap<String, Integer>());
+      }
+      expected.get(k).put(name, i % 100);
+    }
+
+    UDAFHarness.Result result = new UDAFHarness(new UDAFCollect(), "string,int")
+        .splits(6)
+        .partial2Splits(2)
+        .run(rows);
+
+    assertEquals(expected, result.finalResults);
+    assertEquals(expected, result.completeResults);
+  }
+
+  /**
+   * 重复 key 的 value 按 sum、count、min、max 合并，各阶段的合并结果与 COMPLETE 和逐行计算的期望一致
+   */
+  @Test
+  public void testMapCombine() throws Exception {
+    Random random = new Random(4L);
+    Zipf key = new Zipf(20, 1.2, 4L);
+    List<Object[]> rows = new ArrayList<Object[]>();
+    for (int i = 0; i < ROWS; i++) {
+      String name = random.nextInt(20) == 0 ? null : NAMES[random.nextInt(NAMES.length)];
+      Integer value = random.nextInt(10) == 0 ? null : random.nextInt(1000) - 500;
+      rows.add(new Object[] {key.next(), name, value});
+    }
+
+    for (String combine : new String[] {"sum", "count", "min", "max"}) {
+      Map<Integer, Map<String, Long>> expected = new TreeMap<Integer, Map<String, Long>>();
+      for (Object[] row : rows) {
+        int k = (Integer) row[0];
+        if (!expected.containsKey(k)) {
+          expected.put(k, new HashMap<String, Long>());
+        }
+        if (row[1] == null) {
+          continue;
+        }
+        Map<String, Long> map = expected.get(k);
+        Long previous = map.get((String) row[1]);
+        Long value = row[2] == null ? null : Long.valueOf((Integer) row[2]);
+        if ("count".equals(combine)) {
+          value = (previous == null ? 0L : previous) + (value == null ? 0L : 1L);
+        } else if (previous != null && value != null) {
+          if ("sum".equals(combine)) {
+            value = previous + value;
+          } else if ("min".equals(combine)) {
+            value = Math.min(previous, value);
+          } else {
+            value = Math.max(previous, value);
+          }
+        } else if (previous != null) {
+          value = previous;
+        }
+        map.put((String) row[1], value);
+      }
+
+      UDAFHarness.Result result = new UDAFHarness(new UDAFCollect(), "string,int")
+          .constant("string", new Text(combine))
+          .splits(6)
+          .partial2Splits(2)
+          .run(rows);
+
+      // sum、count 为 bigint，min、max 与 value 的类型相同
+      Map<Integer, Map<String, Object>> typed = new TreeMap<Integer, Map<String, Object>>();
+      for (Map.Entry<Integer, Map<String, Long>> entry : expected.entrySet()) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        for (Map.Entry<String, Long> e : entry.getValue().entrySet()) {
+          Long value = e.getValue();
+          boolean sameType = "min".equals(combine) || "max".equals(combine);
+          map.put(e.getKey(), value != null && sameType ? (Object) value.intValue() : value);
+        }
+        typed.put(entry.getKey(), map);
+      }
+      assertEquals(combine, typed, result.finalResults);
+      assertEquals(combine, typed, result.completeResults);
+    }
+  }
+
+  /**
+   * decimal 按 HiveDecimal 求和，不经过 double，结果类型为 decimal(p + 10, s)
+   */
+  @Test
+  public void testMapCombineDecimalSum() throws Exception {
+    Random random = new Random(6L);
+    Zipf key = new Zipf(10, 1.2, 6L);
+    List<Object[]> rows = new ArrayList<Object[]>();
+    Map<Integer, Map<String, HiveDecimal>> expected = new TreeMap<Integer, Map<String, HiveDecimal>>();
+    for (int i = 0; i < ROWS; i++) {
+      int k = key.next();
+      String name = NAMES[random.nextInt(NAMES.length)];
+      // decimal(10, 2) 的最大值附近，double 求和会丢失分
+      HiveDecimal value = HiveDecimal.create(BigDecimal.valueOf(9000000000L + random.nextInt(1000000000), 2));
+      rows.add(new Object[] {k, name, value});
+      if (!expected.containsKey(k)) {
+        expected.put(k, new HashMap<String, HiveDecimal>());
+      }
+      HiveDecimal previous = expected.get(k).get(name);
+      expected.get(k).put(name, previous == null ? value : previous.add(value));
+    }
+
+    UDAFHarness.Result result = new UDAFHarness(new UDAFCollect(), "string,decimal(10,2)")
+        .constant("string", new Text("sum"))
+        .splits(6)
+        .partial2Splits(2)
+        .run(rows);
+
+    assertEquals(expected, result.finalResults);
+    assertEquals(expected, result.completeResults);
+  }
+
+  /**
+   * last 保留 order 最大的 value，order 相同时保留较大的 value，结果与部分聚合结果的到达顺序无关
+   */
+  @Test
+  public void testMapCombineLast() throws Exception {
+    Random random = new Random(5L);
+    Zipf key = new Zipf(20, 1.2, 5L);
+    List<Object[]> rows = new ArrayList<Object[]>();
+    Map<Integer, Map<String, Integer[]>> last = new TreeMap<Integer, Map<String, Integer[]>>();
+    for (int i = 0; i < ROWS; i++) {
+      int k = key.next();
+      String name = NAMES[random.nextInt(NAMES.length)];
+      Integer value = random.nextInt(10) == 0 ? null : random.nextInt(1000);
+      // order 的取值范围较小，保证有相同的 order；NULL 的 order 被忽略
+      Integer order = random.nextInt(20) == 0 ? null : random.nextInt(50);
+      rows.add(new Object[] {k, name, value, order});
+      if (!last.containsKey(k)) {
+        last.put(k, new HashMap<String, Integer[]>());
+      }
+      Integer[] previous = last.get(k).get(name);
+      if (previous == null) {
+        // 只有 NULL order 的 key 也会出现在结果中，value 为 NULL
+        previous = new Integer[2];
+        last.get(k).put(name, previous);
+      }
+      if (order != null && (previous[1] == null || order > previous[1]
+          || (order.equals(previous[1]) && compare(value, previous[0]) > 0))) {
+        previous[0] = value;
+        previous[1] = order;
+      }
+    }
+    Map<Integer, Map<String, Integer>> expected = new TreeMap<Integer, Map<String, Integer>>();
+    for (Map.Entry<Integer, Map<String, Integer[]>> entry : last.entrySet()) {
+      Map<String, Integer> map = new HashMap<String, Integer>();
+      for (Map.Entry<String, Integer[]> e : entry.getValue().entrySet()) {
+        map.put(e.getKey(), e.getValue()[0]);
+      }
+      expected.put(entry.getKey(), map);
+    }
+
+    UDAFHarness.Result result = new UDAFHarness(new UDAFCollect(), "string,int,int")
+        .constant(2, "string", new Text("last"))
+        .splits(6)
+        .partial2Splits(2)
+        .run(rows);
+
+    assertEquals(expected, result.finalResults);
+    assertEquals(expected, result.completeResults);
+  }
+
+  private static int compare(Integer a, Integer b) {
+    if (a == null) {
+      return b == null ? 0 : -1;
+    }
+    return b == null ? 1 : a.compareTo(b);
+  }
+
+  private static List<String> sorted(Object list) {
+    List<String> copy = new ArrayList<String>();
+    for (Object o : (List<?>) list) {
+      copy.add((String) o);
+    }
+    Collections.sort(copy);
+    return copy;
+  }
+}
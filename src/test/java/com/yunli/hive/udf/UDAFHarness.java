@@ -0,0 +1,529 @@
+package com.yunli.hive.udf;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AbstractAggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.Mode;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFParameterInfo;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFResolver2;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.PrimitiveTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.apache.hadoop.io.IntWritable;
+
+/**
+ * 在本地按 Hive 的多阶段执行计划运行 UDAF，不需要集群
+ *
+ * 执行计划：
+ * 1. PARTIAL1：输入按 splits 切分，每个 split 模拟一个 map 任务做哈希聚合，输出 (key, partial)；
+ * 2. PARTIAL2：partial2Splits 大于 0 时，部分聚合结果轮流分给 partial2Splits 个 reduce 任务
+ *    再合并一次，对应 hive.groupby.skewindata 的第一个 reduce 阶段；
+ * 3. FINAL：所有部分聚合结果按 key 排序后流式合并；
+ * 4. COMPLETE：不做 map 端聚合，原始输入按 key 排序后直接聚合，结果应与 FINAL 相同。
+ *
+ * 每个阶段之间的数据都经过 LazyBinarySerDe 序列化和反序列化，与 shuffle 的格式一致，
+ * 所以 merge() 拿到的是 LazyBinaryStruct、LazyBinaryArray 等对象。reduce 端的阶段与
+ * GroupByOperator 一样只用一个 Buffer，每个分组结束后 reset()。
+ * 每个阶段记录耗时、输入输出行数、输出的字节数和 Buffer 的估算内存。
+ *
+ * evaluator 的创建方式与执行计划相同：resolver 只在编译期调用一次，各个任务按类名用无参构造函数重新创建
+ * evaluator（evaluator 实现了 Serializable 时则是序列化后的副本），编译期设置的非 transient 状态不会带到任务中。
+ *
+ * 输入的每一行为 {key, 参数1, 参数2, ...}，key 为 int；设置了 {@link #keySkew} 时为 {参数1, 参数2, ...}，
+ * key 按 Zipf 分布生成。
+ */
+public class UDAFHarness {
+
+  private final GenericUDAFResolver2 resolver;
+
+  private final List<TypeInfo> argumentTypes;
+
+  private final List<ObjectInspector> constantOIs = new ArrayList<ObjectInspector>();
+
+  // 与 constantOIs 一一对应，-1 表示追加在所有列参数之后
+  private final List<Integer> constantPositions = new ArrayList<Integer>();
+
+  private int splits = 4;
+
+  private int partial2Splits = 0;
+
+  private Zipf keys;
+
+  /**
+   * @param argumentTypes 逗号分隔的参数类型，例如 "int" 或 "string,int"
+   */
+  public UDAFHarness(GenericUDAFResolver2 resolver, String argumentTypes) {
+    this.resolver = resolver;
+    this.argumentTypes = TypeInfoUtils.getTypeInfosFromTypeString(argumentTypes);
+  }
+
+  /**
+   * 追加一个常量参数，位于所有列参数之后，例如 my_top_k(x, 10) 中的 10
+   */
+  public UDAFHarness constant(String type, Object writableValue) {
+    return constant(-1, type, writableValue);
+  }
+
+  /**
+   * 在参数列表的 position 位置（从 0 开始）放一个常量参数，列参数按顺序填充其余位置，
+   * 例如 my_collect(k, v, 'last', id) 中的 'last' 位于 2
+   */
+  public UDAFHarness constant(int position, String type, Object writableValue) {
+    constantOIs.add(PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+        (PrimitiveTypeInfo) TypeInfoFactory.getPrimitiveTypeInfo(type), writableValue));
+    constantPositions.add(position);
+    return this;
+  }
+
+  /**
+   * map 任务个数，即 PARTIAL1 的输入切分数
+   */
+  public UDAFHarness splits(int splits) {
+    this.splits = splits;
+    return this;
+  }
+
+  /**
+   * PARTIAL2 阶段的 reduce 任务个数，0 表示跳过 PARTIAL2
+   */
+  public UDAFHarness partial2Splits(int partial2Splits) {
+    this.partial2Splits = partial2Splits;
+    return this;
+  }
+
+  /**
+   * 按 Zipf 分布生成分组键：keys 个不同的 key，skew 为 0 时是均匀分布，越大越集中在少数 key 上
+   */
+  public UDAFHarness keySkew(int keys, double skew, long seed) {
+    this.keys = new Zipf(keys, skew, seed);
+    return this;
+  }
+
+  /**
+   * 一个阶段的统计信息
+   */
+  public static class PhaseStats {
+    public final String name;
+
+    public long rowsIn;
+
+    public long rowsOut;
+
+    public long nanos;
+
+    /**
+     * 输出的部分聚合结果序列化后的字节数，FINAL 和 COMPLETE 为 0
+     */
+    public long bytesOut;
+
+    /**
+     * 同时存在的 Buffer 估算内存的峰值，Buffer 没有实现 estimate() 时为 -1
+     */
+    public long peakBufferBytes = -1;
+
+    PhaseStats(String name) {
+      this.name = name;
+    }
+
+    void observeBuffers(long bytes) {
+      if (bytes >= 0) {
+        peakBufferBytes = Math.max(peakBufferBytes, bytes);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return name + ": rowsIn=" + rowsIn + ", rowsOut=" + rowsOut + ", ms=" + nanos / 1000000.0
+          + ", bytesOut=" + bytesOut + ", peakBufferBytes=" + peakBufferBytes;
+    }
+  }
+
+  public static class Result {
+    /**
+     * 经过 PARTIAL1 (-> PARTIAL2) -> FINAL 得到的每个 key 的结果，已转换为 Java 标准对象
+     */
+    public final Map<Integer, Object> finalResults = new TreeMap<Integer, Object>();
+
+    /**
+     * COMPLETE 模式得到的每个 key 的结果
+     */
+    public final Map<Integer, Object> completeResults = new TreeMap<Integer, Object>();
+
+    public final List<PhaseStats> phases = new ArrayList<PhaseStats>();
+
+    public PhaseStats phase(String name) {
+      for (PhaseStats phase : phases) {
+        if (phase.name.equals(name)) {
+          return phase;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      for (PhaseStats phase : phases) {
+        sb.append(phase).append('\n');
+      }
+      return sb.toString();
+    }
+  }
+
+  /**
+   * 序列化输入行，列名为 k, a0, a1, ...
+   */
+  public LazyBinaryRows serializeInput(List<Object[]> rows) throws SerDeException {
+    StringBuilder columns = new StringBuilder("k");
+    StringBuilder types = new StringBuilder("int");
+    ObjectInspector[] fieldOIs = new ObjectInspector[argumentTypes.size() + 1];
+    fieldOIs[0] = PrimitiveObjectInspectorFactory.javaIntObjectInspector;
+    for (int i = 0; i < argumentTypes.size(); i++) {
+      columns.append(",a").append(i);
+      types.append(',').append(argumentTypes.get(i).getTypeName());
+      fieldOIs[i + 1] = TypeInfoUtils.getStandardJavaObjectInspectorFromTypeInfo(argumentTypes.get(i));
+    }
+    List<List<Object>> input = new ArrayList<List<Object>>(rows.size());
+    for (Object[] row : rows) {
+      if (keys == null) {
+        input.add(Arrays.asList(row));
+      } else {
+        List<Object> keyed = new ArrayList<Object>(row.length + 1);
+        keyed.add(keys.next());
+        keyed.addAll(Arrays.asList(row));
+        input.add(keyed);
+      }
+    }
+    return LazyBinaryRows.serialize(columns.toString(), types.toString(),
+        LazyBinaryRows.structOI(columns.toString(), fieldOIs), input);
+  }
+
+  public Result run(List<Object[]> rows) throws HiveException, SerDeException {
+    return run(serializeInput(rows));
+  }
+
+  /**
+   * @param input {@link #serializeInput(List)} 的结果
+   */
+  public Result run(LazyBinaryRows input) throws HiveException, SerDeException {
+    Result result = new Result();
+
+    StructField keyField = input.field("k");
+    StructField[] argumentFields = new StructField[argumentTypes.size()];
+    int[] argumentPositions = new int[argumentTypes.size()];
+    ObjectInspector[] inputOIs = new ObjectInspector[argumentTypes.size() + constantOIs.size()];
+    for (int i = 0; i < constantOIs.size(); i++) {
+      if (constantPositions.get(i) >= 0) {
+        inputOIs[constantPositions.get(i)] = constantOIs.get(i);
+      }
+    }
+    // 列参数依次填充空位，之后是没有指定位置的常量
+    int position = 0;
+    for (int i = 0; i < argumentFields.length; i++, position++) {
+      while (inputOIs[position] != null) {
+        position++;
+      }
+      argumentFields[i] = input.field("a" + i);
+      argumentPositions[i] = position;
+      inputOIs[position] = argumentFields[i].getFieldObjectInspector();
+    }
+    for (int i = 0; i < constantOIs.size(); i++) {
+      if (constantPositions.get(i) < 0) {
+        while (inputOIs[position] != null) {
+          position++;
+        }
+        inputOIs[position] = constantOIs.get(i);
+      }
+    }
+
+    // 编译期按原始参数类型选出 evaluator，reduce 端的阶段也不会用部分聚合结果的类型重新调用 resolver
+    GenericUDAFEvaluator compiled = resolver.getEvaluator(new ParameterInfo(inputOIs));
+
+    LazyBinaryRows partials =
+        partial1(compiled, input, keyField, argumentFields, argumentPositions, inputOIs, result);
+    if (partial2Splits > 0) {
+      partials = partial2(compiled, partials, result);
+    }
+    finalPhase(compiled, partials, result);
+    complete(compiled, input, keyField, argumentFields, argumentPositions, inputOIs, result);
+    return result;
+  }
+
+  /**
+   * 模拟一个任务从执行计划中取出 evaluator，与 AggregationDesc 一致：Serializable 的 evaluator
+   * 随执行计划序列化，这里用 Java 序列化复制；其他的只记录类名，用无参构造函数重新创建
+   */
+  private static GenericUDAFEvaluator newEvaluator(GenericUDAFEvaluator compiled) throws HiveException {
+    try {
+      if (compiled instanceof Serializable) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(compiled);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        return (GenericUDAFEvaluator) in.readObject();
+      }
+      Constructor<? extends GenericUDAFEvaluator> constructor = compiled.getClass().getDeclaredConstructor();
+      constructor.setAccessible(true);
+      return constructor.newInstance();
+    } catch (Exception e) {
+      throw new HiveException("Cannot create " + compiled.getClass().getName() + " from the plan", e);
+    }
+  }
+
+  private Object[] newParameters(ObjectInspector[] inputOIs) {
+    Object[] parameters = new Object[inputOIs.length];
+    for (int i = 0; i < inputOIs.length; i++) {
+      if (inputOIs[i] instanceof ConstantObjectInspector) {
+        parameters[i] = ((ConstantObjectInspector) inputOIs[i]).getWritableConstantValue();
+      }
+    }
+    return parameters;
+  }
+
+  private LazyBinaryRows partial1(GenericUDAFEvaluator compiled, LazyBinaryRows input, StructField keyField,
+      StructField[] argumentFields, int[] argumentPositions, ObjectInspector[] inputOIs, Result result)
+      throws HiveException, SerDeException {
+    PhaseStats stats = new PhaseStats("PARTIAL1");
+    GenericUDAFEvaluator evaluator = newEvaluator(compiled);
+    ObjectInspector partialOI = evaluator.init(Mode.PARTIAL1, inputOIs);
+    LazyBinaryRows.Writer writer = partialWriter(partialOI);
+    Object[] parameters = newParameters(inputOIs);
+
+    long start = System.nanoTime();
+    int splitSize = Math.max(1, (input.size() + splits - 1) / splits);
+    for (int splitStart = 0; splitStart < input.size(); splitStart += splitSize) {
+      // map 端的哈希聚合，每个 key 一个 Buffer
+      Map<Integer, AggregationBuffer> buffers = new LinkedHashMap<Integer, AggregationBuffer>();
+      int splitEnd = Math.min(input.size(), splitStart + splitSize);
+      for (int i = splitStart; i < splitEnd; i++) {
+        Object row = input.row(i);
+        int key = ((IntWritable) input.field(row, keyField)).get();
+        AggregationBuffer buffer = buffers.get(key);
+        if (buffer == null) {
+          buffer = evaluator.getNewAggregationBuffer();
+          buffers.put(key, buffer);
+        }
+        for (int j = 0; j < argumentFields.length; j++) {
+          parameters[argumentPositions[j]] = input.field(row, argumentFields[j]);
+        }
+        evaluator.iterate(buffer, parameters);
+        stats.rowsIn++;
+      }
+      stats.observeBuffers(estimate(buffers.values()));
+      for (Map.Entry<Integer, AggregationBuffer> entry : buffers.entrySet()) {
+        writer.add(Arrays.asList(new IntWritable(entry.getKey()), evaluator.terminatePartial(entry.getValue())));
+        stats.rowsOut++;
+      }
+    }
+    LazyBinaryRows partials = writer.finish();
+    stats.nanos = System.nanoTime() - start;
+    stats.bytesOut = partials.bytes();
+    result.phases.add(stats);
+    return partials;
+  }
+
+  private LazyBinaryRows partial2(GenericUDAFEvaluator compiled, LazyBinaryRows partials, Result result)
+      throws HiveException, SerDeException {
+    PhaseStats stats = new PhaseStats("PARTIAL2");
+    StructField partialField = partials.field("p");
+    GenericUDAFEvaluator evaluator = newEvaluator(compiled);
+    ObjectInspector partialOI = evaluator.init(Mode.PARTIAL2,
+        new ObjectInspector[] {partialField.getFieldObjectInspector()});
+    LazyBinaryRows.Writer writer = partialWriter(partialOI);
+
+    long start = System.nanoTime();
+    for (int reducer = 0; reducer < partial2Splits; reducer++) {
+      // 部分聚合结果随机分发，这里按行号轮流分给各个 reduce 任务
+      List<Integer> indexes = new ArrayList<Integer>();
+      for (int i = reducer; i < partials.size(); i += partial2Splits) {
+        indexes.add(i);
+      }
+      reduce(evaluator, true, partials, indexes, null, null, null, null, writer, null, stats);
+    }
+    LazyBinaryRows out = writer.finish();
+    stats.nanos = System.nanoTime() - start;
+    stats.bytesOut = out.bytes();
+    result.phases.add(stats);
+    return out;
+  }
+
+  private void finalPhase(GenericUDAFEvaluator compiled, LazyBinaryRows partials, Result result)
+      throws HiveException, SerDeException {
+    PhaseStats stats = new PhaseStats("FINAL");
+    StructField partialField = partials.field("p");
+    GenericUDAFEvaluator evaluator = newEvaluator(compiled);
+    ObjectInspector outputOI = evaluator.init(Mode.FINAL,
+        new ObjectInspector[] {partialField.getFieldObjectInspector()});
+
+    long start = System.nanoTime();
+    reduce(evaluator, true, partials, allRows(partials), null, null, null, null, null,
+        new Output(outputOI, result.finalResults), stats);
+    stats.nanos = System.nanoTime() - start;
+    result.phases.add(stats);
+  }
+
+  private void complete(GenericUDAFEvaluator compiled, LazyBinaryRows input, StructField keyField,
+      StructField[] argumentFields, int[] argumentPositions, ObjectInspector[] inputOIs, Result result)
+      throws HiveException, SerDeException {
+    PhaseStats stats = new PhaseStats("COMPLETE");
+    GenericUDAFEvaluator evaluator = newEvaluator(compiled);
+    ObjectInspector outputOI = evaluator.init(Mode.COMPLETE, inputOIs);
+    Object[] parameters = newParameters(inputOIs);
+
+    long start = System.nanoTime();
+    reduce(evaluator, false, input, allRows(input), keyField, argumentFields, argumentPositions, parameters, null,
+        new Output(outputOI, result.completeResults), stats);
+    stats.nanos = System.nanoTime() - start;
+    result.phases.add(stats);
+  }
+
+  private static List<Integer> allRows(LazyBinaryRows rows) {
+    List<Integer> indexes = new ArrayList<Integer>(rows.size());
+    for (int i = 0; i < rows.size(); i++) {
+      indexes.add(i);
+    }
+    return indexes;
+  }
+
+  /**
+   * FINAL 和 COMPLETE 阶段的输出，转换为 Java 标准对象后按 key 保存
+   */
+  private static class Output {
+    final ObjectInspector outputOI;
+
+    final Map<Integer, Object> results;
+
+    Output(ObjectInspector outputOI, Map<Integer, Object> results) {
+      this.outputOI = outputOI;
+      this.results = results;
+    }
+  }
+
+  /**
+   * reduce 端的流式聚合：按 key 排序后依次处理，每个分组结束时输出并 reset() 复用同一个 Buffer
+   *
+   * @param merge    为 true 时输入是 (k, p) 形式的部分聚合结果，调用 merge()；否则调用 iterate()
+   * @param writer   不为 NULL 时输出 terminatePartial() 的结果
+   * @param output   不为 NULL 时输出 terminate() 的结果
+   */
+  private void reduce(GenericUDAFEvaluator evaluator, boolean merge, LazyBinaryRows rows, List<Integer> indexes,
+      StructField keyField, StructField[] argumentFields, int[] argumentPositions, Object[] parameters,
+      LazyBinaryRows.Writer writer, Output output, PhaseStats stats) throws HiveException, SerDeException {
+    if (merge) {
+      keyField = rows.field("k");
+    }
+    StructField partialField = merge ? rows.field("p") : null;
+
+    // 高 32 位为 key，低 32 位为 indexes 中的下标，排序后相同 key 的行相邻且保持原有顺序
+    long[] order = new long[indexes.size()];
+    for (int i = 0; i < order.length; i++) {
+      int key = ((IntWritable) rows.field(rows.row(indexes.get(i)), keyField)).get();
+      order[i] = ((long) key << 32) | i;
+    }
+    Arrays.sort(order);
+
+    AggregationBuffer buffer = evaluator.getNewAggregationBuffer();
+    for (int i = 0; i < order.length; i++) {
+      Object row = rows.row(indexes.get((int) order[i]));
+      if (merge) {
+        evaluator.merge(buffer, rows.field(row, partialField));
+      } else {
+        for (int j = 0; j < argumentFields.length; j++) {
+          parameters[argumentPositions[j]] = rows.field(row, argumentFields[j]);
+        }
+        evaluator.iterate(buffer, parameters);
+      }
+      stats.rowsIn++;
+
+      int key = (int) (order[i] >> 32);
+      if (i + 1 == order.length || (int) (order[i + 1] >> 32) != key) {
+        stats.observeBuffers(estimate(Arrays.asList(buffer)));
+        if (writer != null) {
+          writer.add(Arrays.asList(new IntWritable(key), evaluator.terminatePartial(buffer)));
+        } else {
+          output.results.put(key,
+              ObjectInspectorUtils.copyToStandardJavaObject(evaluator.terminate(buffer), output.outputOI));
+        }
+        stats.rowsOut++;
+        evaluator.reset(buffer);
+      }
+    }
+  }
+
+  private static LazyBinaryRows.Writer partialWriter(ObjectInspector partialOI) throws SerDeException {
+    String partialType = TypeInfoUtils.getTypeInfoFromObjectInspector(partialOI).getTypeName();
+    return new LazyBinaryRows.Writer("k,p", "int," + partialType,
+        LazyBinaryRows.structOI("k,p", PrimitiveObjectInspectorFactory.writableIntObjectInspector, partialOI));
+  }
+
+  /**
+   * Buffer 估算内存之和，有 Buffer 没有实现 estimate() 时返回 -1
+   */
+  private static long estimate(Iterable<AggregationBuffer> buffers) {
+    long total = 0;
+    for (AggregationBuffer buffer : buffers) {
+      if (!GenericUDAFEvaluator.isEstimable(buffer)) {
+        return -1;
+      }
+      total += ((AbstractAggregationBuffer) buffer).estimate();
+    }
+    return total;
+  }
+
+  /**
+   * 传给 resolver 的参数信息，对应普通的 GROUP BY 调用（非 DISTINCT、非窗口函数）
+   */
+  private static class ParameterInfo implements GenericUDAFParameterInfo {
+    private final ObjectInspector[] parameters;
+
+    ParameterInfo(ObjectInspector[] parameters) {
+      this.parameters = parameters;
+    }
+
+    public TypeInfo[] getParameters() {
+      TypeInfo[] types = new TypeInfo[parameters.length];
+      for (int i = 0; i < parameters.length; i++) {
+        types[i] = TypeInfoUtils.getTypeInfoFromObjectInspector(parameters[i]);
+      }
+      return types;
+    }
+
+    public ObjectInspector[] getParameterObjectInspectors() {
+      return parameters;
+    }
+
+    public boolean isWindowing() {
+      return false;
+    }
+
+    public boolean isDistinct() {
+      return false;
+    }
+
+    public boolean isAllColumns() {
+      return false;
+    }
+  }
+}
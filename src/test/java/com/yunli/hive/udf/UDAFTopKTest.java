@@ -0,0 +1,179 @@
+package com.yunli.hive.udf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.Mode;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.junit.Test;
+
+/**
+ * @Description: UDAFTopK 的测试类
+ **/
+public class UDAFTopKTest {
+
+  private static final int ROWS = 20000;
+
+  /**
+   * 分组内不同值的个数不超过 k 时没有替换，经过 PARTIAL2 合并后 count 仍是准确的，error 为 0
+   */
+  @Test
+  public void testExactWithinK() throws Exception {
+    Random random = new Random(7L);
+    Zipf key = new Zipf(20, 1.2, 7L);
+    List<Object[]> rows = new ArrayList<Object[]>();
+    Map<Integer, Map<Integer, Long>> expected = new TreeMap<Integer, Map<Integer, Long>>();
+    for (int i = 0; i < ROWS; i++) {
+      int k = key.next();
+      Integer value = random.nextInt(20) == 0 ? null : random.nextInt(8);
+      rows.add(new Object[] {k, value});
+      if (!expected.containsKey(k)) {
+        expected.put(k, new HashMap<Integer, Long>());
+      }
+      if (value != null) {
+        Long count = expected.get(k).get(value);
+        expected.get(k).put(value, count == null ? 1L : count + 1);
+      }
+    }
+
+    UDAFHarness.Result result = new UDAFHarness(new UDAFTopK(), "int")
+        .constant("int", new IntWritable(10))
+        .splits(6)
+        .partial2Splits(2)
+        .run(rows);
+
+    assertEquals(expected.keySet(), result.finalResults.keySet());
+    assertTrue(result.phase("PARTIAL1").peakBufferBytes > 0);
+    assertTrue(result.phase("FINAL").peakBufferBytes > 0);
+    for (Map.Entry<Integer, Map<Integer, Long>> entry : expected.entrySet()) {
+      for (Object topK : new Object[] {
+          result.finalResults.get(entry.getKey()), result.completeResults.get(entry.getKey())}) {
+        assertSorted(topK);
+        Map<Integer, Long> counts = new HashMap<Integer, Long>();
+        for (Object item : (List<?>) topK) {
+          List<?> struct = (List<?>) item;
+          counts.put((Integer) struct.get(0), (Long) struct.get(1));
+          assertEquals(0L, struct.get(2));
+        }
+        assertEquals(entry.getValue(), counts);
+      }
+    }
+  }
+
+  /**
+   * 没有收到部分聚合结果的 PARTIAL2 不知道 k，输出 NULL，FINAL 忽略 NULL 而不是创建 k = 0 的 SpaceSaving
+   */
+  @Test
+  public void testEmptyPartial2() throws Exception {
+    ObjectInspector kOI = PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+        TypeInfoFactory.intTypeInfo, new IntWritable(3));
+    GenericUDAFEvaluator partial1 = new UDAFTopK.TopKEvaluator();
+    ObjectInspector partialOI = partial1.init(Mode.PARTIAL1,
+        new ObjectInspector[] {PrimitiveObjectInspectorFactory.writableIntObjectInspector, kOI});
+    AggregationBuffer buffer = partial1.getNewAggregationBuffer();
+    for (int i = 0; i < 5; i++) {
+      partial1.iterate(buffer, new Object[] {new IntWritable(i % 4), new IntWritable(3)});
+    }
+
+    GenericUDAFEvaluator partial2 = new UDAFTopK.TopKEvaluator();
+    partial2.init(Mode.PARTIAL2, new ObjectInspector[] {partialOI});
+    Object empty = partial2.terminatePartial(partial2.getNewAggregationBuffer());
+    assertNull(empty);
+
+    GenericUDAFEvaluator finalEvaluator = new UDAFTopK.TopKEvaluator();
+    finalEvaluator.init(Mode.FINAL, new ObjectInspector[] {partialOI});
+    AggregationBuffer merged = finalEvaluator.getNewAggregationBuffer();
+    finalEvaluator.merge(merged, empty);
+    finalEvaluator.merge(merged, partial1.terminatePartial(buffer));
+    assertEquals(3, ((List<?>) finalEvaluator.terminate(merged)).size());
+  }
+
+  /**
+   * 不同值远多于 k 时，每个输出的真实次数都在 [count - error, count] 之间，
+   * 没有输出的值的真实次数不超过输出中最小的 count
+   */
+  @Test
+  public void testErrorBoundOnZipf() throws Exception {
+    final int k = 20;
+    // 与 harness 使用相同的 seed，按同样的顺序重新生成每一行的 key
+    Zipf key = new Zipf(10, 1.0, 8L);
+    Zipf value = new Zipf(1000, 1.2, 9L);
+    List<Object[]> rows = new ArrayList<Object[]>();
+    Map<Integer, Map<Integer, Long>> truth = new TreeMap<Integer, Map<Integer, Long>>();
+    for (int i = 0; i < ROWS; i++) {
+      int group = key.next();
+      int v = value.next();
+      rows.add(new Object[] {v});
+      if (!truth.containsKey(group)) {
+        truth.put(group, new HashMap<Integer, Long>());
+      }
+      Long count = truth.get(group).get(v);
+      truth.get(group).put(v, count == null ? 1L : count + 1);
+    }
+
+    UDAFHarness.Result result = new UDAFHarness(new UDAFTopK(), "int")
+        .constant("int", new IntWritable(k))
+        .keySkew(10, 1.0, 8L)
+        .splits(8)
+        .partial2Splits(3)
+        .run(rows);
+
+    assertEquals(truth.keySet(), result.finalResults.keySet());
+    for (Map.Entry<Integer, Map<Integer, Long>> entry : truth.entrySet()) {
+      Map<Integer, Long> counts = entry.getValue();
+      for (Object topK : new Object[] {
+          result.finalResults.get(entry.getKey()), result.completeResults.get(entry.getKey())}) {
+        assertSorted(topK);
+        assertEquals(Math.min(k, counts.size()), ((List<?>) topK).size());
+        Map<Integer, Long> reported = new HashMap<Integer, Long>();
+        for (Object item : (List<?>) topK) {
+          List<?> struct = (List<?>) item;
+          Integer v = (Integer) struct.get(0);
+          long count = (Long) struct.get(1);
+          long error = (Long) struct.get(2);
+          long trueCount = counts.containsKey(v) ? counts.get(v) : 0;
+          assertTrue(v + ": " + (count - error) + " <= " + trueCount, count - error <= trueCount);
+          assertTrue(v + ": " + trueCount + " <= " + count, trueCount <= count);
+          reported.put(v, count);
+        }
+        // 没有保留的值，真实次数不超过最小的 count
+        long minCount = minCount(topK);
+        for (Map.Entry<Integer, Long> count : counts.entrySet()) {
+          if (!reported.containsKey(count.getKey())) {
+            assertTrue(count.getKey() + ": " + count.getValue() + " <= " + minCount, count.getValue() <= minCount);
+          }
+        }
+      }
+    }
+  }
+
+  private static long minCount(Object topK) {
+    List<?> items = (List<?>) topK;
+    return items.isEmpty() ? 0 : (Long) ((List<?>) items.get(items.size() - 1)).get(1);
+  }
+
+  /**
+   * 结果按 count 降序排列
+   */
+  private static void assertSorted(Object topK) {
+    long previous = Long.MAX_VALUE;
+    for (Object item : (List<?>) topK) {
+      long count = (Long) ((List<?>) item).get(1);
+      assertTrue(count <= previous);
+      previous = count;
+    }
+  }
+}
@@ -0,0 +1,125 @@
+package com.yunli.hive.udf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredJavaObject;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredObject;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+/**
+ * @Description: UDFBloomContains 的测试类
+ **/
+public class UDFBloomContainsTest {
+
+  // 足够小的误判率，保证下面断言为 false 的值不会误判
+  private static final double FPP = 0.000001;
+
+  /**
+   * 偶数构建的 filter
+   */
+  private static byte[] evens() {
+    BloomFilter filter = BloomFilter.create(100, FPP);
+    for (int i = 0; i < 100; i += 2) {
+      filter.add(BloomFilter.hash(new IntWritable(i), PrimitiveObjectInspectorFactory.writableIntObjectInspector));
+    }
+    return filter.serialize();
+  }
+
+  /**
+   * 奇数构建的 filter，与 evens() 大小相同
+   */
+  private static byte[] odds() {
+    BloomFilter filter = BloomFilter.create(100, FPP);
+    for (int i = 1; i < 100; i += 2) {
+      filter.add(BloomFilter.hash(new IntWritable(i), PrimitiveObjectInspectorFactory.writableIntObjectInspector));
+    }
+    return filter.serialize();
+  }
+
+  private static boolean contains(UDFBloomContains udf, Object filter, Object value) throws Exception {
+    Object result = udf.evaluate(new DeferredObject[] {new DeferredJavaObject(filter), new DeferredJavaObject(value)});
+    return ((BooleanWritable) result).get();
+  }
+
+  @Test
+  public void testConstantFilter() throws Exception {
+    UDFBloomContains udf = new UDFBloomContains();
+    ObjectInspector filterOI = PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+        TypeInfoFactory.binaryTypeInfo, new BytesWritable(evens()));
+    udf.initialize(new ObjectInspector[] {filterOI, PrimitiveObjectInspectorFactory.writableIntObjectInspector});
+
+    for (int i = 0; i < 100; i++) {
+      assertEquals(String.valueOf(i), i % 2 == 0, contains(udf, null, new IntWritable(i)));
+    }
+    assertFalse(contains(udf, null, null));
+  }
+
+  /**
+   * filter 参数不是常量时按行变化，serde 复用同一个 BytesWritable 也要重新加载
+   */
+  @Test
+  public void testChangingFilter() throws Exception {
+    UDFBloomContains udf = new UDFBloomContains();
+    udf.initialize(new ObjectInspector[] {
+        PrimitiveObjectInspectorFactory.writableBinaryObjectInspector,
+        PrimitiveObjectInspectorFactory.writableIntObjectInspector});
+
+    byte[] evens = evens();
+    byte[] odds = odds();
+    BytesWritable filter = new BytesWritable();
+    for (int i = 0; i < 100; i++) {
+      boolean useOdds = i % 3 == 0;
+      filter.set(useOdds ? odds : evens, 0, evens.length);
+      assertEquals(String.valueOf(i), useOdds == (i % 2 == 1), contains(udf, filter, new IntWritable(i)));
+    }
+
+    // 新的对象、相同内容，以及 NULL filter
+    assertTrue(contains(udf, new BytesWritable(evens()), new IntWritable(4)));
+    assertFalse(contains(udf, new BytesWritable(odds()), new IntWritable(4)));
+    assertFalse(contains(udf, null, new IntWritable(4)));
+    assertTrue(contains(udf, new BytesWritable(odds()), new IntWritable(5)));
+  }
+
+  /**
+   * 整数类型都按 long 哈希，int 构建的 filter 可以用 bigint 探测
+   */
+  @Test
+  public void testIntFilterProbedWithBigint() throws Exception {
+    UDFBloomContains udf = new UDFBloomContains();
+    udf.initialize(new ObjectInspector[] {
+        PrimitiveObjectInspectorFactory.writableBinaryObjectInspector,
+        PrimitiveObjectInspectorFactory.writableLongObjectInspector});
+
+    BytesWritable filter = new BytesWritable(evens());
+    for (long i = 0; i < 100; i++) {
+      assertEquals(String.valueOf(i), i % 2 == 0, contains(udf, filter, new LongWritable(i)));
+    }
+  }
+
+  @Test
+  public void testStringFilter() throws Exception {
+    BloomFilter filter = BloomFilter.create(100, FPP);
+    for (String name : new String[] {"张三", "李四", "王五"}) {
+      filter.add(BloomFilter.hash(new Text(name), PrimitiveObjectInspectorFactory.writableStringObjectInspector));
+    }
+
+    UDFBloomContains udf = new UDFBloomContains();
+    udf.initialize(new ObjectInspector[] {
+        PrimitiveObjectInspectorFactory.writableBinaryObjectInspector,
+        PrimitiveObjectInspectorFactory.writableStringObjectInspector});
+
+    BytesWritable serialized = new BytesWritable(filter.serialize());
+    assertTrue(contains(udf, serialized, new Text("李四")));
+    assertFalse(contains(udf, serialized, new Text("赵六")));
+  }
+}
@@ -0,0 +1,222 @@
+package com.yunli.hive.udf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AbstractAggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AggregationBuffer;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredJavaObject;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredObject;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @Description: UDFMetrics 的测试类
+ **/
+public class UDFMetricsTest {
+
+  /**
+   * 把计数器记录在 Counters 中
+   */
+  private static class RecordingReporter implements Reporter {
+    final Counters counters = new Counters();
+
+    @Override
+    public void setStatus(String status) {
+    }
+
+    @Override
+    public Counters.Counter getCounter(Enum<?> name) {
+      return counters.findCounter(name);
+    }
+
+    @Override
+    public Counters.Counter getCounter(String group, String name) {
+      return counters.findCounter(group, name);
+    }
+
+    @Override
+    public void incrCounter(Enum<?> key, long amount) {
+      counters.incrCounter(key, amount);
+    }
+
+    @Override
+    public void incrCounter(String group, String counter, long amount) {
+      counters.incrCounter(group, counter, amount);
+    }
+
+    @Override
+    public InputSplit getInputSplit() throws UnsupportedOperationException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public float getProgress() {
+      return 0;
+    }
+
+    @Override
+    public void progress() {
+    }
+
+    long get(String counter) {
+      return counters.findCounter(UDFMetrics.GROUP, counter).getValue();
+    }
+  }
+
+  private final RecordingReporter reporter = new RecordingReporter();
+
+  private MapredContext context(boolean enabled) {
+    JobConf conf = new JobConf();
+    conf.setBoolean(UDFMetrics.ENABLED, enabled);
+    conf.setInt(UDFMetrics.SAMPLE_INTERVAL, 1);
+    return MapredContext.init(true, conf);
+  }
+
+  /**
+   * 与 ExecMapper 一样，在 configure 之后、处理第一行时才设置 Reporter
+   */
+  private void firstRow(MapredContext context) {
+    context.setReporter(reporter);
+  }
+
+  @After
+  public void tearDown() {
+    MapredContext.close();
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    assertSame(UDFMetrics.DISABLED, UDFMetrics.create(null, UDAFAvg.class));
+    assertSame(UDFMetrics.DISABLED, UDFMetrics.create(context(false), UDAFAvg.class));
+
+    GenericUDAFEvaluator avg = new UDAFAvg.AvgEvaluator();
+    MapredContext context = context(false);
+    avg.configure(context);
+    firstRow(context);
+    avg.init(GenericUDAFEvaluator.Mode.PARTIAL1,
+        new ObjectInspector[] {PrimitiveObjectInspectorFactory.writableIntObjectInspector});
+    AggregationBuffer buffer = avg.getNewAggregationBuffer();
+    avg.iterate(buffer, new Object[] {new IntWritable(1)});
+    avg.terminatePartial(buffer);
+    avg.close();
+    assertEquals(0, reporter.counters.getGroup(UDFMetrics.GROUP).size());
+  }
+
+  @Test
+  public void testUDAFCounters() throws Exception {
+    GenericUDAFEvaluator avg = new UDAFAvg.AvgEvaluator();
+    MapredContext context = context(true);
+    avg.configure(context);
+    avg.init(GenericUDAFEvaluator.Mode.PARTIAL1,
+        new ObjectInspector[] {PrimitiveObjectInspectorFactory.writableIntObjectInspector});
+    AggregationBuffer buffer = avg.getNewAggregationBuffer();
+    firstRow(context);
+    avg.iterate(buffer, new Object[] {new IntWritable(30)});
+    avg.iterate(buffer, new Object[] {null});
+    avg.iterate(buffer, new Object[] {new IntWritable(40)});
+    avg.terminatePartial(buffer);
+    avg.close();
+
+    assertEquals(3, reporter.get("UDAFAvg.ROWS_IN"));
+    assertEquals(1, reporter.get("UDAFAvg.NULLS_SKIPPED"));
+    assertEquals(1, reporter.get("UDAFAvg.ROWS_OUT"));
+    assertEquals(((AbstractAggregationBuffer) buffer).estimate(), reporter.get("UDAFAvg.PEAK_BUFFER_SIZE"));
+    assertTrue(reporter.get("UDAFAvg.NANOS") >= 0);
+  }
+
+  /**
+   * configure 时还没有 Reporter，flush() 时才读取；一直没有 Reporter 时不输出也不报错
+   */
+  @Test
+  public void testReporterAfterConfigure() throws Exception {
+    MapredContext context = context(true);
+    UDFMetrics metrics = UDFMetrics.create(context, UDAFAvg.class);
+    metrics.rowIn();
+    metrics.flush();
+    assertEquals(0, reporter.counters.getGroup(UDFMetrics.GROUP).size());
+
+    firstRow(context);
+    metrics.rowIn();
+    metrics.flush();
+    assertEquals(2, reporter.get("UDAFAvg.ROWS_IN"));
+  }
+
+  /**
+   * PEAK_BUFFER_SIZE 为 Buffer estimate() 的字节数；多次 flush() 时只累加增量，其他计数器不会重复累加
+   */
+  @Test
+  public void testPeakBufferSize() throws Exception {
+    GenericUDAFEvaluator collect = new UDAFCollect.ArrayCollectUDAFEvaluator();
+    MapredContext context = context(true);
+    collect.configure(context);
+    collect.init(GenericUDAFEvaluator.Mode.PARTIAL1,
+        new ObjectInspector[] {PrimitiveObjectInspectorFactory.writableStringObjectInspector});
+    AggregationBuffer buffer = collect.getNewAggregationBuffer();
+    firstRow(context);
+    for (int i = 0; i < 5; i++) {
+      collect.iterate(buffer, new Object[] {new Text("张三")});
+    }
+    int peak = ((AbstractAggregationBuffer) buffer).estimate();
+    assertTrue(peak > 0);
+    collect.terminatePartial(buffer);
+    collect.close();
+
+    collect.reset(buffer);
+    collect.iterate(buffer, new Object[] {new Text("李四")});
+    collect.terminatePartial(buffer);
+    collect.close();
+
+    assertEquals(6, reporter.get("UDAFCollect.ROWS_IN"));
+    assertEquals(2, reporter.get("UDAFCollect.ROWS_OUT"));
+    assertEquals(peak, reporter.get("UDAFCollect.PEAK_BUFFER_SIZE"));
+  }
+
+  /**
+   * 预先加载的常量 filter 每个实例只记一次 CACHE_HITS；按行变化的 filter 直接在字节上探测，没有缓存
+   */
+  @Test
+  public void testCacheHitsOncePerInstance() throws Exception {
+    BloomFilter filter = BloomFilter.create(100, 0.01);
+    filter.add(BloomFilter.hashLong(1));
+    BytesWritable bytes = new BytesWritable(filter.serialize());
+
+    MapredContext context = context(true);
+    UDFBloomContains constant = new UDFBloomContains();
+    constant.configure(context);
+    constant.initialize(new ObjectInspector[] {
+        PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+            TypeInfoFactory.binaryTypeInfo, bytes),
+        PrimitiveObjectInspectorFactory.writableLongObjectInspector});
+    UDFBloomContains perRow = new UDFBloomContains();
+    perRow.configure(context);
+    perRow.initialize(new ObjectInspector[] {
+        PrimitiveObjectInspectorFactory.writableBinaryObjectInspector,
+        PrimitiveObjectInspectorFactory.writableLongObjectInspector});
+    firstRow(context);
+    for (int i = 0; i < 5; i++) {
+      DeferredObject value = new DeferredJavaObject(new LongWritable(i));
+      constant.evaluate(new DeferredObject[] {new DeferredJavaObject(null), value});
+      perRow.evaluate(new DeferredObject[] {new DeferredJavaObject(bytes), value});
+    }
+    constant.close();
+    perRow.close();
+
+    assertEquals(10, reporter.get("UDFBloomContains.ROWS_IN"));
+    assertEquals(1, reporter.get("UDFBloomContains.CACHE_HITS"));
+  }
+}
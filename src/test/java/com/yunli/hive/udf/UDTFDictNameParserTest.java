@@ -0,0 +1,156 @@
+package com.yunli.hive.udf;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
+import org.apache.hadoop.io.Text;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @Description: UDTFDictNameParser 的测试类
+ **/
+public class UDTFDictNameParserTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  // 输出行会被复用，收集时转换成 "名/姓"
+  private final List<String> rows = new ArrayList<String>();
+
+  private UDTFDictNameParser newParser(String dict, String separators) throws HiveException {
+    List<ObjectInspector> args = new ArrayList<ObjectInspector>();
+    args.add(PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+    if (dict != null || separators != null) {
+      args.add(constant(dict));
+    }
+    if (separators != null) {
+      args.add(constant(separators));
+    }
+    UDTFDictNameParser parser = new UDTFDictNameParser();
+    parser.initialize(args.toArray(new ObjectInspector[args.size()]));
+    parser.setCollector(new Collector() {
+      @Override
+      public void collect(Object input) throws HiveException {
+        Object[] row = (Object[]) input;
+        rows.add(row[0] + "/" + row[1]);
+      }
+    });
+    return parser;
+  }
+
+  private static ObjectInspector constant(String value) {
+    return PrimitiveObjectInspectorFactory.getPrimitiveWritableConstantObjectInspector(
+        TypeInfoFactory.stringTypeInfo, value == null ? null : new Text(value));
+  }
+
+  private List<String> process(UDTFDictNameParser parser, String name) throws HiveException {
+    rows.clear();
+    parser.process(new Object[] {name == null ? null : new Text(name)});
+    return new ArrayList<String>(rows);
+  }
+
+  @Test
+  public void testChineseNames() throws HiveException {
+    UDTFDictNameParser parser = newParser(null, null);
+    assertEquals(Arrays.asList("三/张"), process(parser, "张三"));
+    assertEquals(Arrays.asList("锋/欧阳"), process(parser, "欧阳锋"));
+    assertEquals(Arrays.asList("光/司马"), process(parser, "司马光"));
+    assertEquals(Arrays.asList("锋/欧阳"), process(parser, "欧阳 锋"));
+    // 至少保留一个字作为名字
+    assertEquals(Arrays.asList("阳/欧"), process(parser, "欧阳"));
+  }
+
+  @Test
+  public void testSeparators() throws HiveException {
+    UDTFDictNameParser parser = newParser(null, null);
+    assertEquals(Arrays.asList("三/张", "四/李"), process(parser, "张三和李四"));
+    assertEquals(Arrays.asList("三/张", "四/李"), process(parser, "张三、李四"));
+    assertEquals(Arrays.asList("亮/诸葛", "和平/王", "六/赵"), process(parser, "诸葛亮 & 王和平 和 赵六"));
+    // "和" 两侧不足两个字时不作为分隔词
+    assertEquals(Arrays.asList("和平/王"), process(parser, "王和平"));
+  }
+
+  @Test
+  public void testEnglishNames() throws HiveException {
+    UDTFDictNameParser parser = newParser(null, null);
+    assertEquals(Arrays.asList("John/Smith"), process(parser, "John Smith"));
+    assertEquals(Arrays.asList("John/White", "Ann/White"), process(parser, "John and Ann White"));
+    assertEquals(Arrays.asList("John/White", "Ann/White"), process(parser, "John & Ann White"));
+    assertEquals(Arrays.asList("Sandy/Brown"), process(parser, "Sandy Brown"));
+  }
+
+  @Test
+  public void testIgnored() throws HiveException {
+    UDTFDictNameParser parser = newParser(null, null);
+    assertEquals(0, process(parser, null).size());
+    assertEquals(0, process(parser, "").size());
+    assertEquals(0, process(parser, "Dorothy").size());
+    assertEquals(0, process(parser, "a b c").size());
+  }
+
+  @Test
+  public void testCustomDictionaryAndSeparators() throws HiveException, IOException {
+    File dict = folder.newFile("custom-surnames.txt");
+    FileOutputStream out = new FileOutputStream(dict);
+    try {
+      out.write("# 测试词典\n张\n张三\n李\n".getBytes(StandardCharsets.UTF_8));
+    } finally {
+      out.close();
+    }
+
+    UDTFDictNameParser parser = newParser(dict.getAbsolutePath(), "与, /");
+    assertEquals(Arrays.asList("丰/张三", "四/李"), process(parser, "张三丰与李四"));
+    assertEquals(Arrays.asList("三/张"), process(parser, "张三"));
+    assertEquals(0, process(parser, "王五/赵六").size());
+  }
+
+  /**
+   * 同一个 JVM 中词典文件被重新上传后，新的实例按新的内容解析
+   */
+  @Test
+  public void testReloadChangedDictionary() throws IOException, HiveException {
+    File dict = folder.newFile("reloaded-surnames.txt");
+    write(dict, "张\n");
+    UDTFDictNameParser parser = newParser(dict.getAbsolutePath(), null);
+    assertEquals(0, process(parser, "欧阳锋").size());
+
+    write(dict, "张\n欧阳\n");
+    parser = newParser(dict.getAbsolutePath(), null);
+    assertEquals(Arrays.asList("锋/欧阳"), process(parser, "欧阳锋"));
+  }
+
+  private static void write(File file, String content) throws IOException {
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(content.getBytes(StandardCharsets.UTF_8));
+    } finally {
+      out.close();
+    }
+  }
+
+  @Test
+  public void testClasspathDictionary() throws HiveException {
+    UDTFDictNameParser parser = newParser("classpath:com/yunli/hive/udf/surnames.txt", null);
+    assertEquals(Arrays.asList("八/贾"), process(parser, "贾八"));
+  }
+
+  @Test(expected = HiveException.class)
+  public void testMissingDictionary() throws HiveException {
+    UDTFDictNameParser parser = newParser("/no/such/surnames-dict.txt", null);
+    process(parser, "张三");
+  }
+}
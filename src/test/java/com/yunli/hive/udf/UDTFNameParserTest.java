@@ -0,0 +1,76 @@
+package com.yunli.hive.udf;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.Text;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @Description: UDTFNameParser 的测试类
+ **/
+public class UDTFNameParserTest {
+
+  private UDTFNameParser parser;
+
+  // 输出行会被复用，收集时转换成字符串
+  private final List<String> rows = new ArrayList<String>();
+
+  @Before
+  public void setUp() throws HiveException {
+    parser = new UDTFNameParser();
+    parser.initialize(new ObjectInspector[] {PrimitiveObjectInspectorFactory.writableStringObjectInspector});
+    parser.setCollector(new Collector() {
+      @Override
+      public void collect(Object input) throws HiveException {
+        Object[] row = (Object[]) input;
+        rows.add(row[0] + " " + row[1]);
+      }
+    });
+  }
+
+  private List<String> process(String name) throws HiveException {
+    rows.clear();
+    parser.process(new Object[] {name == null ? null : new Text(name)});
+    return new ArrayList<String>(rows);
+  }
+
+  @Test
+  public void testProcess() throws HiveException {
+    assertEquals(1, process("John Smith").size());
+    assertEquals("John Smith", process("John Smith").get(0));
+
+    List<String> couple = process("John and Ann White");
+    assertEquals(2, couple.size());
+    assertEquals("John White", couple.get(0));
+    assertEquals("Ann White", couple.get(1));
+
+    assertEquals("Ted Green", process("  Ted\tGreen ").get(0));
+    assertEquals("张 三", process("张 三").get(0));
+  }
+
+  @Test
+  public void testProcess_ignored() throws HiveException {
+    assertEquals(0, process(null).size());
+    assertEquals(0, process("").size());
+    assertEquals(0, process("Dorothy").size());
+    assertEquals(0, process("John or Ann White").size());
+    assertEquals(0, process("a b c d e f").size());
+  }
+
+  @Test
+  public void testProcessInputRecord() {
+    List<Object[]> result = parser.processInputRecord("John and Ann White");
+    assertEquals(2, result.size());
+    assertEquals("Ann", result.get(1)[0]);
+    assertEquals("White", result.get(1)[1]);
+    assertEquals(0, parser.processInputRecord(null).size());
+  }
+}
@@ -0,0 +1,33 @@
+package com.yunli.hive.udf;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 按 Zipf 分布在 [0, n) 中取值，用于生成倾斜的分组键和查找值
+ *
+ * skew 为 0 时是均匀分布，越大越集中在较小的值上；相同的 seed 生成相同的序列。
+ */
+final class Zipf {
+  private final double[] cumulative;
+
+  private final Random random;
+
+  Zipf(int n, double skew, long seed) {
+    cumulative = new double[n];
+    double sum = 0;
+    for (int i = 0; i < n; i++) {
+      sum += 1.0 / Math.pow(i + 1, skew);
+      cumulative[i] = sum;
+    }
+    for (int i = 0; i < n; i++) {
+      cumulative[i] /= sum;
+    }
+    random = new Random(seed);
+  }
+
+  int next() {
+    int i = Arrays.binarySearch(cumulative, random.nextDouble());
+    return Math.min(i < 0 ? -i - 1 : i, cumulative.length - 1);
+  }
+}